@@ -0,0 +1,33 @@
+package net.bigpoint.assessment.gasstation;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
+import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+
+/**
+ * This interface is for a gas station that also takes orders without blocking the caller.
+ * 
+ * The implementations should be thread-safe!
+ * 
+ */
+public interface AsyncGasStation extends GasStation {
+
+	/**
+	 * Simulates a customer wanting to buy a specific amount of gas, without waiting for the
+	 * gas to be pumped.
+	 * 
+	 * @param type
+	 *            The type of gas the customer wants to buy
+	 * @param amountInLiters
+	 *            The amount of gas the customer wants to buy. Nothing less than this amount is acceptable!
+	 * @param maxPricePerLiter
+	 *            The maximum price the customer is willing to pay per liter
+	 * @return a future completed with the price the customer has to pay for this transaction, or
+	 *         completed exceptionally with a {@link NotEnoughGasException} or a
+	 *         {@link GasTooExpensiveException} in the same cases {@link #buyGas(GasType, double, double)}
+	 *         throws them
+	 */
+	CompletableFuture<Double> buyGasAsync(GasType type, double amountInLiters, double maxPricePerLiter);
+
+}
@@ -73,6 +73,32 @@ public interface GasStation {
 	 */
 	int getNumberOfCancellationsTooExpensive();
 
+	/**
+	 * Returns the number of successful sales, without the int overflow of a long-running station.
+	 * 
+	 * @return the number of sales that were successful
+	 */
+	default long getNumberOfSalesLong() {
+		return getNumberOfSales();
+	}
+
+	/**
+	 * @return the number of cancelled transactions due to not enough gas being available, without the int overflow
+	 */
+	default long getNumberOfCancellationsNoGasLong() {
+		return getNumberOfCancellationsNoGas();
+	}
+
+	/**
+	 * Returns the number of cancelled transactions due to the gas being more expensive than what the customer wanted to
+	 * pay, without the int overflow
+	 * 
+	 * @return the number of cancelled transactions
+	 */
+	default long getNumberOfCancellationsTooExpensiveLong() {
+		return getNumberOfCancellationsTooExpensive();
+	}
+
 	/**
 	 * Get the price for a specific type of gas
 	 * 
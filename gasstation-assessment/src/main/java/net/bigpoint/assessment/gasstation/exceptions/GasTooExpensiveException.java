@@ -11,4 +11,24 @@ public class GasTooExpensiveException extends Exception {
 	 */
 	private static final long serialVersionUID = -2581151114207596829L;
 
+	/**
+	 * Creates a new exception, with a stack trace.
+	 */
+	public GasTooExpensiveException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception without cause or suppressed exceptions. Created with writableStackTrace false it is
+	 * immutable and can be shared, see {@link NotEnoughGasException#NotEnoughGasException(String, boolean)}.
+	 * 
+	 * @param message
+	 *            the detail message
+	 * @param writableStackTrace
+	 *            whether the stack trace is filled in and writable
+	 */
+	public GasTooExpensiveException(String message, boolean writableStackTrace) {
+		super(message, null, false, writableStackTrace);
+	}
+
 }
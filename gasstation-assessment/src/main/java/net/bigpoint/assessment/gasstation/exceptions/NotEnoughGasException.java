@@ -11,4 +11,25 @@ public class NotEnoughGasException extends Exception {
 	 */
 	private static final long serialVersionUID = -4577139900795204370L;
 
+	/**
+	 * Creates a new exception, with the stack trace of where it is created.
+	 */
+	public NotEnoughGasException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception without cause or suppressed exceptions, and which cannot be given any afterwards.
+	 * Without a writable stack trace it is immutable, so a single instance can be thrown by any number of threads
+	 * without the cost of filling in a stack trace.
+	 * 
+	 * @param message
+	 *            the detail message
+	 * @param writableStackTrace
+	 *            whether the stack trace is filled in and writable
+	 */
+	public NotEnoughGasException(String message, boolean writableStackTrace) {
+		super(message, null, false, writableStackTrace);
+	}
+
 }
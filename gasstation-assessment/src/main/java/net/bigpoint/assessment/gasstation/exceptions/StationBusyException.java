@@ -0,0 +1,36 @@
+package net.bigpoint.assessment.gasstation.exceptions;
+
+/**
+ * This exception is thrown whenever gas could not be bought because the station was too busy to take the customer
+ * in time. Gas may still be available: the customer may try again later.
+ * 
+ */
+public class StationBusyException extends NotEnoughGasException {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 2810273317450862745L;
+
+	/**
+	 * Creates a new exception, with the stack trace of where it is created.
+	 */
+	public StationBusyException() {
+		super();
+	}
+
+	/**
+	 * Creates a new exception without cause or suppressed exceptions, and which cannot be given any afterwards.
+	 * Without a writable stack trace it is immutable, so a single instance can be thrown by any number of threads
+	 * without the cost of filling in a stack trace.
+	 * 
+	 * @param message
+	 *            the detail message
+	 * @param writableStackTrace
+	 *            whether the stack trace is filled in and writable
+	 */
+	public StationBusyException(String message, boolean writableStackTrace) {
+		super(message, writableStackTrace);
+	}
+
+}
@@ -0,0 +1,171 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Benchmark of pump affinity: as many customer threads as pumps buy tiny amounts, so
+ * pumping takes no time and the cost measured is handing pumps to customers. Prints the
+ * throughput of each strategy and how often a thread switches pumps between purchases,
+ * each switch pulling the lock, ledger and state of another pump into the cache of its
+ * core. Built by the benchmark profile, {@code mvn -Pbenchmark test-compile}. For the
+ * hardware view run it under a profiler, for instance:
+ * <pre>
+ * perf stat -e cache-misses,LLC-load-misses \
+ *     java -cp target/classes:target/test-classes:gasstation-assessment.jar \
+ *     net.bigpoint.assessment.gasstation.implementation.PumpAffinityBenchmark
+ * </pre>
+ * @author gianksp
+ */
+public class PumpAffinityBenchmark {
+
+    /**
+     * Liters of each purchase, small enough for the pump not to sleep.
+     */
+    private static final double LITERS = 0.001;
+
+    /**
+     * Purchases of each customer thread per run.
+     */
+    private static final int PURCHASES = 200000;
+
+    /**
+     * Runs of each strategy, the first one warming up.
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * Run the benchmark.
+     * @param args unused
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        System.out.println(threads+" customer threads and pumps");
+        System.out.println(String.format("%-13s %-12s %14s %12s", "mode", "strategy", "purchases/s", "switches %"));
+        for (AcquisitionMode mode : new AcquisitionMode[] {AcquisitionMode.BLOCKING, AcquisitionMode.NON_BLOCKING}) {
+            Map<String, PumpSelectionStrategy> strategies = new LinkedHashMap<String, PumpSelectionStrategy>();
+            strategies.put("first fit", PumpSelectionStrategies.firstFit());
+            strategies.put("rotating", PumpSelectionStrategies.rotating());
+            strategies.put("two choices", PumpSelectionStrategies.powerOfTwoChoices());
+            strategies.put("affinity", PumpSelectionStrategies.affinity());
+            for (Map.Entry<String, PumpSelectionStrategy> strategy : strategies.entrySet()) {
+                SwitchCounter counter = new SwitchCounter(strategy.getValue());
+                double throughput = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    counter.reset();
+                    throughput = run(mode, counter, threads);
+                }
+                System.out.println(String.format("%-13s %-12s %14.0f %12.1f", mode, strategy.getKey(), throughput, counter.getSwitchRate()));
+            }
+        }
+    }
+
+    /**
+     * Let every customer thread buy on a new station.
+     * @param mode      acquisition mode of the station
+     * @param strategy  pump selection strategy of the station
+     * @param threads   customer threads, and pumps
+     * @return purchases per second
+     * @throws InterruptedException
+     */
+    private static double run(AcquisitionMode mode, PumpSelectionStrategy strategy, int threads) throws InterruptedException {
+        final Station station = new Station();
+        station.setAcquisitionMode(mode);
+        station.setPumpSelectionStrategy(strategy);
+        station.setEventSink((GasType type, double amountInLiters, double remaining, double price, long priceVersion) -> { });
+        station.setPrice(GasType.DIESEL, 1);
+        for (int i = 0; i < threads; i++) {
+            station.addGasPump(new GasPump(GasType.DIESEL, PURCHASES * LITERS * threads));
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] customers = new Thread[threads];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Thread(() -> {
+                PurchaseResult result = new PurchaseResult();
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int purchase = 0; purchase < PURCHASES; purchase++) {
+                    station.tryBuyGas(GasType.DIESEL, LITERS, 1, result);
+                }
+            });
+            customers[i].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread customer : customers) {
+            customer.join();
+        }
+        return (double) PURCHASES * threads / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * Counts how often a thread is sent first to another pump than for its previous purchase.
+     * The first pump of the order serves the purchase unless it is busy, so this is close to
+     * how often threads switch pumps.
+     */
+    private static final class SwitchCounter implements PumpSelectionStrategy {
+
+        /**
+         * Strategy measured.
+         */
+        private final PumpSelectionStrategy strategy;
+
+        /**
+         * First pump of the previous purchase of each thread.
+         */
+        private final ThreadLocal<int[]> previous = ThreadLocal.withInitial(() -> new int[] {-1});
+
+        /**
+         * Purchases ordered.
+         */
+        private final LongAdder purchases = new LongAdder();
+
+        /**
+         * Purchases sent first to another pump than the previous purchase of the thread.
+         */
+        private final LongAdder switches = new LongAdder();
+
+        /**
+         * Create a counter.
+         * @param strategy strategy measured
+         */
+        SwitchCounter(PumpSelectionStrategy strategy) {
+            this.strategy = strategy;
+        }
+
+        public int order(GasType type, PumpView[] pumps, double amountInLiters, int[] order) {
+            int count = this.strategy.order(type, pumps, amountInLiters, order);
+            int[] last = this.previous.get();
+            this.purchases.increment();
+            if (count > 0 && order[0] != last[0]) {
+                this.switches.increment();
+                last[0] = order[0];
+            }
+            return count;
+        }
+
+        /**
+         * Start counting again.
+         */
+        void reset() {
+            this.purchases.reset();
+            this.switches.reset();
+        }
+
+        /**
+         * Get the share of purchases sent first to another pump.
+         * @return switches in percent
+         */
+        double getSwitchRate() {
+            return 100.0 * this.switches.sum() / Math.max(1, this.purchases.sum());
+        }
+    }
+}
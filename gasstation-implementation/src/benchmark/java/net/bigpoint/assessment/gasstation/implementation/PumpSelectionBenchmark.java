@@ -0,0 +1,149 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Simulation comparing the built in pump selection strategies: the same streams of mostly
+ * small and a few big orders are sold by concurrent customers on identical stations, and
+ * the cancellation rate and throughput of each strategy, over every stream, are printed.
+ * Not a test, built by the benchmark profile and run on its own:
+ * <pre>
+ * mvn -Pbenchmark test-compile
+ * java -cp target/classes:target/test-classes:gasstation-assessment.jar \
+ *     net.bigpoint.assessment.gasstation.implementation.PumpSelectionBenchmark
+ * </pre>
+ * @author gianksp
+ */
+public class PumpSelectionBenchmark {
+
+    /**
+     * Liters of each pump of the simulated station.
+     */
+    private static final double[] PUMP_LITERS = {3, 6, 9, 12};
+
+    /**
+     * Orders sold in each run, about as much as the fuel of the station.
+     */
+    private static final int ORDERS = 42;
+
+    /**
+     * Customers buying at once.
+     */
+    private static final int CUSTOMERS = 16;
+
+    /**
+     * Runs of each strategy, each with its own order stream.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Seed of the order stream of the first round, the same for every strategy.
+     */
+    private static final long SEED = 42;
+
+    /**
+     * Run the simulation.
+     * @param args unused
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        double[][] orders = new double[ROUNDS][];
+        for (int round = 0; round < ROUNDS; round++) {
+            orders[round] = newOrders(SEED + round);
+        }
+        Map<String, PumpSelectionStrategy> strategies = new LinkedHashMap<String, PumpSelectionStrategy>();
+        strategies.put("first fit", PumpSelectionStrategies.firstFit());
+        strategies.put("best fit", PumpSelectionStrategies.bestFit());
+        strategies.put("worst fit", PumpSelectionStrategies.worstFit());
+        strategies.put("round robin", PumpSelectionStrategies.roundRobin());
+        strategies.put("rotating", PumpSelectionStrategies.rotating());
+        strategies.put("two choices", PumpSelectionStrategies.powerOfTwoChoices());
+        System.out.println(String.format("%-13s %-12s %8s %12s %12s %12s", "mode", "strategy", "sales", "canceled %", "liters/s", "sales/s"));
+        for (AcquisitionMode mode : AcquisitionMode.values()) {
+            for (Map.Entry<String, PumpSelectionStrategy> strategy : strategies.entrySet()) {
+                run(mode, strategy.getKey(), strategy.getValue(), orders);
+            }
+        }
+    }
+
+    /**
+     * Create the order stream: 80% of orders between 0.05 and 0.2 liters, the others
+     * between 1 and 5 liters.
+     * @param seed seed of the stream
+     * @return liters of each order
+     */
+    private static double[] newOrders(long seed) {
+        Random random = new Random(seed);
+        double[] orders = new double[ORDERS];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = random.nextInt(5) > 0 ? 0.05 + random.nextDouble() * 0.15 : 1 + random.nextDouble() * 4;
+        }
+        return orders;
+    }
+
+    /**
+     * Sell every order stream on new stations and print the results.
+     * @param mode      acquisition mode of the stations
+     * @param name      name of the strategy
+     * @param strategy  pump selection strategy of the stations
+     * @param orders    liters of each order of each stream
+     * @throws InterruptedException
+     */
+    private static void run(AcquisitionMode mode, String name, PumpSelectionStrategy strategy, double[][] orders) throws InterruptedException {
+        long sales = 0;
+        long canceled = 0;
+        double liters = 0;
+        double seconds = 0;
+        for (double[] stream : orders) {
+            long start = System.nanoTime();
+            StationStats stats = sell(mode, strategy, stream);
+            seconds += (System.nanoTime() - start) / 1e9;
+            sales += stats.getNumberOfSales();
+            canceled += stats.getNumberOfCancellationsNoGas();
+            liters += stats.getVolume(GasType.DIESEL);
+        }
+        System.out.println(String.format("%-13s %-12s %8d %12.1f %12.2f %12.1f", mode, name, sales,
+                100.0 * canceled / (sales + canceled), liters / seconds, sales / seconds));
+    }
+
+    /**
+     * Sell an order stream on a new station.
+     * @param mode      acquisition mode of the station
+     * @param strategy  pump selection strategy of the station
+     * @param orders    liters of each order
+     * @return statistics of the station once every order is served or canceled
+     * @throws InterruptedException
+     */
+    private static StationStats sell(AcquisitionMode mode, PumpSelectionStrategy strategy, final double[] orders) throws InterruptedException {
+        final Station station = new Station();
+        station.setAcquisitionMode(mode);
+        station.setPumpSelectionStrategy(strategy);
+        station.setEventSink((GasType type, double amountInLiters, double remaining, double price, long priceVersion) -> { });
+        station.setPrice(GasType.DIESEL, 1);
+        for (double liters : PUMP_LITERS) {
+            station.addGasPump(new GasPump(GasType.DIESEL, liters));
+        }
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] customers = new Thread[CUSTOMERS];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Thread(() -> {
+                PurchaseResult result = new PurchaseResult();
+                for (int order = next.getAndIncrement(); order < orders.length; order = next.getAndIncrement()) {
+                    station.tryBuyGas(GasType.DIESEL, orders[order], 1, result);
+                }
+            });
+        }
+        for (Thread customer : customers) {
+            customer.start();
+        }
+        for (Thread customer : customers) {
+            customer.join();
+        }
+        return station.snapshot();
+    }
+}
@@ -0,0 +1,30 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * How a station hands a pump to a customer when several pumps serve the gas type requested.
+ * @author gianksp
+ */
+public enum AcquisitionMode {
+
+    /**
+     * Wait on the first pump with enough fuel, even if it is busy and another one is idle.
+     */
+    BLOCKING,
+
+    /**
+     * Try every pump with enough fuel without waiting and take the first idle one. Only
+     * when all of them are busy wait, a bounded time, on the one with the shortest queue,
+     * then look again. Customers looking again may be overtaken by later ones; use
+     * {@link #QUEUED} to serve them in arrival order.
+     */
+    NON_BLOCKING,
+
+    /**
+     * Take an idle pump with enough fuel if nobody is waiting, else wait in the queue of
+     * the gas type and be handed the next pump freed with enough fuel, in arrival order.
+     * Customers needing more than what the pumps freed have may be overtaken a bounded
+     * number of times only.
+     */
+    QUEUED;
+
+}
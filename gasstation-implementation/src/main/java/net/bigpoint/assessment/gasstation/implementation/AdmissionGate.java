@@ -0,0 +1,96 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lets the customers of a gas type in within {@link AdmissionLimits}. Customers are let in
+ * in arrival order; a customer is rejected right away if the queue is full or if, going
+ * by how long customers stay, it would not be let in before its max wait.
+ * @author gianksp
+ */
+final class AdmissionGate {
+
+    /**
+     * Weight of the last stay in the average stay, as a right shift: 1/8.
+     */
+    private static final int STAY_WEIGHT_SHIFT = 3;
+
+    /**
+     * Limits enforced.
+     */
+    private final AdmissionLimits limits;
+
+    /**
+     * One permit per customer let in at once. Fair, so customers are let in in arrival order.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Customers waiting to be let in.
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Moving average of the time customers stay once let in, in nanoseconds. Updated
+     * without synchronization, a lost update only makes it a little less accurate.
+     */
+    private volatile long averageStayNanos;
+
+    /**
+     * Create a gate.
+     * @param limits limits enforced
+     */
+    AdmissionGate(AdmissionLimits limits) {
+        this.limits = limits;
+        this.permits = new Semaphore(limits.getMaxConcurrent(), true);
+    }
+
+    /**
+     * Let a customer in, waiting for another one to leave if needed.
+     * @param timed     whether the customer gives up at its deadline
+     * @param deadline  when the customer gives up, as System.nanoTime()
+     * @return true if let in, then {@link #exit(long)} must be called once it leaves;
+     *         false if rejected or the deadline passed
+     */
+    boolean enter(boolean timed, long deadline) {
+        //Honors the customers already waiting, unlike tryAcquire()
+        try {
+            if (this.permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        int queued = this.waiting.incrementAndGet();
+        try {
+            long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(this.limits.getMaxWaitMillis());
+            if (queued > this.limits.getMaxQueued()
+                    || queued * this.averageStayNanos / this.limits.getMaxConcurrent() > maxWaitNanos) {
+                return false;
+            }
+            if (timed) {
+                maxWaitNanos = Math.min(maxWaitNanos, deadline - System.nanoTime());
+            }
+            return this.permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            //Rejected, restore the flag for the caller
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            this.waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Let a customer out.
+     * @param stayNanos time the customer stayed once let in, in nanoseconds
+     */
+    void exit(long stayNanos) {
+        long average = this.averageStayNanos;
+        this.averageStayNanos = average + ((stayNanos - average) >> STAY_WEIGHT_SHIFT);
+        this.permits.release();
+    }
+}
@@ -0,0 +1,65 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * Limits on the customers of a gas type a station takes at once, so it sheds load quickly
+ * when demand spikes instead of parking threads without bound. Customers over the limits
+ * are rejected, see {@link PurchaseOutcome#REJECTED}.
+ * @author gianksp
+ */
+public final class AdmissionLimits {
+
+    /**
+     * Max customers buying at once, waiting for a pump or pumping.
+     */
+    private final int maxConcurrent;
+
+    /**
+     * Max customers waiting to be let in once maxConcurrent are buying.
+     */
+    private final int maxQueued;
+
+    /**
+     * Max time a customer waits to be let in, in milliseconds.
+     */
+    private final long maxWaitMillis;
+
+    /**
+     * Create admission limits.
+     * @param maxConcurrent  max customers buying at once, waiting for a pump or pumping. At least 1
+     * @param maxQueued      max customers waiting to be let in, others are rejected right away
+     * @param maxWaitMillis  max time a customer waits to be let in. Customers that would likely
+     *                       wait longer are rejected right away
+     */
+    public AdmissionLimits(int maxConcurrent, int maxQueued, long maxWaitMillis) {
+        if (maxConcurrent < 1 || maxQueued < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Invalid admission limits: "+maxConcurrent+", "+maxQueued+", "+maxWaitMillis);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Get the max customers buying at once.
+     * @return max concurrent customers
+     */
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    /**
+     * Get the max customers waiting to be let in.
+     * @return max queued customers
+     */
+    public int getMaxQueued() {
+        return this.maxQueued;
+    }
+
+    /**
+     * Get the max time a customer waits to be let in.
+     * @return max wait in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return this.maxWaitMillis;
+    }
+}
@@ -0,0 +1,226 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Event sink logging station events from a background thread. Purchases only copy a few
+ * primitives into a bounded lock-free ring buffer; building the message and the logging
+ * I/O happen on the background thread, which is parked while there is nothing to log and
+ * woken by the next event. When the ring is full events are dropped, and counted, rather
+ * than making customers wait.
+ * @author gianksp
+ */
+public class AsyncLoggingEventSink implements StationEventSink, Closeable {
+
+    /**
+     * Gas types by ordinal.
+     */
+    private static final GasType[] TYPES = GasType.values();
+
+    /**
+     * Logger events are written to.
+     */
+    private final Logger log;
+
+    /**
+     * Ring capacity minus one, capacity being a power of two.
+     */
+    private final int mask;
+
+    /**
+     * Sequence of each ring slot: equal to the position a producer may write at, or that
+     * position plus one once written and ready for the background thread.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * Gas type ordinal of each slot.
+     */
+    private final int[] types;
+
+    /**
+     * Liters sold of each slot.
+     */
+    private final double[] amounts;
+
+    /**
+     * Liters left in the pump of each slot.
+     */
+    private final double[] remainings;
+
+    /**
+     * Total price of each slot.
+     */
+    private final double[] prices;
+
+    /**
+     * Price version of each slot.
+     */
+    private final long[] priceVersions;
+
+    /**
+     * Next position producers write at.
+     */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * Next position the background thread reads, only used by it.
+     */
+    private long head = 0;
+
+    /**
+     * Events dropped because the ring was full.
+     */
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Background thread writing the log.
+     */
+    private final Thread writer;
+
+    /**
+     * Whether the background thread is about to park or parked, so producers must wake it.
+     */
+    private volatile boolean idle = false;
+
+    /**
+     * Set once closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Create a sink and start its background thread.
+     * @param log      logger events are written to
+     * @param capacity events buffered at most, rounded up to a power of two
+     */
+    public AsyncLoggingEventSink(Logger log, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.log = log;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.types = new int[size];
+        this.amounts = new double[size];
+        this.remainings = new double[size];
+        this.prices = new double[size];
+        this.priceVersions = new long[size];
+        this.writer = new Thread(this::drain, "station-event-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a sale to be logged, or drop it if the ring is full.
+     */
+    public void sale(GasType type, double amountInLiters, double remaining, double price, long priceVersion) {
+        long position = this.tail.get();
+        while (true) {
+            int index = (int) position & this.mask;
+            long difference = this.sequences.get(index) - position;
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = this.tail.get();
+            } else if (difference < 0) {
+                //Background thread is behind a full ring
+                this.dropped.increment();
+                return;
+            } else {
+                position = this.tail.get();
+            }
+        }
+        int index = (int) position & this.mask;
+        this.types[index] = type.ordinal();
+        this.amounts[index] = amountInLiters;
+        this.remainings[index] = remaining;
+        this.prices[index] = price;
+        this.priceVersions[index] = priceVersion;
+        this.sequences.set(index, position + 1);
+        if (this.idle) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    /**
+     * Get the number of events dropped because the ring was full.
+     * @return events dropped
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Log the events queued so far and stop the background thread.
+     */
+    public void close() {
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Background thread: log events as they come, until closed and drained.
+     */
+    private void drain() {
+        while (true) {
+            boolean wasClosed = this.closed;
+            if (!logNext()) {
+                if (wasClosed) {
+                    return;
+                }
+                this.idle = true;
+                //An event published before idle was set saw no one to wake, look once more
+                if (!isReady() && !this.closed) {
+                    LockSupport.park(this);
+                }
+                this.idle = false;
+            }
+        }
+    }
+
+    /**
+     * Tell whether the next event is ready to be logged.
+     * @return true if ready
+     */
+    private boolean isReady() {
+        return this.sequences.get((int) this.head & this.mask) == this.head + 1;
+    }
+
+    /**
+     * Log the next event, if one is ready.
+     * @return true if an event was logged
+     */
+    private boolean logNext() {
+        if (!isReady()) {
+            return false;
+        }
+        int index = (int) this.head & this.mask;
+        GasType type = TYPES[this.types[index]];
+        double amountInLiters = this.amounts[index];
+        double remaining = this.remainings[index];
+        double price = this.prices[index];
+        long priceVersion = this.priceVersions[index];
+        //Hand the slot back to producers before the slow part
+        this.sequences.set(index, this.head + this.mask + 1);
+        this.head++;
+        if (this.log.isLoggable(Level.INFO)) {
+            this.log.info("[PUMP STATISTICS] "+type+" sold: "+amountInLiters+", amount remaining: "+remaining
+                    +", price: "+price+", price version: "+priceVersion);
+        }
+        return true;
+    }
+}
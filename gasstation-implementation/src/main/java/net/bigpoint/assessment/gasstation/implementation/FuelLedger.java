@@ -0,0 +1,125 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Book keeping of the fuel of a pump, or of a tank feeding several pumps. Customers
+ * reserve the liters they want before pumping, so checking and claiming capacity is a
+ * single compare and set that never waits for a fill in progress. Amounts are kept as
+ * raw double bits.
+ * @author gianksp
+ */
+final class FuelLedger {
+
+    /**
+     * Liters neither reserved nor dispensed.
+     */
+    private final AtomicLong available;
+
+    /**
+     * Liters reserved by customers but not dispensed yet.
+     */
+    private final AtomicLong reserved = new AtomicLong(Double.doubleToRawLongBits(0));
+
+    /**
+     * Liters not dispensed yet, reserved or not. Goes down as fuel is dispensed and up
+     * only when the pump is restocked.
+     */
+    private final AtomicLong remaining;
+
+    /**
+     * Create a ledger.
+     * @param amount liters initially available
+     */
+    FuelLedger(double amount) {
+        this.available = new AtomicLong(Double.doubleToRawLongBits(amount));
+        this.remaining = new AtomicLong(Double.doubleToRawLongBits(amount));
+    }
+
+    /**
+     * Get liters that can still be reserved.
+     * @return available liters
+     */
+    double getAvailable() {
+        return Double.longBitsToDouble(this.available.get());
+    }
+
+    /**
+     * Get liters reserved but not dispensed yet.
+     * @return reserved liters
+     */
+    double getReserved() {
+        return Double.longBitsToDouble(this.reserved.get());
+    }
+
+    /**
+     * Get liters not dispensed yet, whether reserved or not.
+     * @return remaining liters
+     */
+    double getRemaining() {
+        return Double.longBitsToDouble(this.remaining.get());
+    }
+
+    /**
+     * Reserve liters if enough are available.
+     * @param amountInLiters liters to reserve
+     * @return true if reserved, false if not enough liters are available
+     */
+    boolean tryReserve(double amountInLiters) {
+        while (true) {
+            long current = this.available.get();
+            double left = Double.longBitsToDouble(current);
+            //Written so a NaN amount is never reserved
+            if (!(left >= amountInLiters)) {
+                return false;
+            }
+            if (this.available.compareAndSet(current, Double.doubleToRawLongBits(left - amountInLiters))) {
+                add(this.reserved, amountInLiters);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back liters reserved but not dispensed, e.g. because the customer went to
+     * another pump.
+     * @param amountInLiters liters previously reserved
+     */
+    void cancel(double amountInLiters) {
+        add(this.reserved, -amountInLiters);
+        add(this.available, amountInLiters);
+    }
+
+    /**
+     * Record that reserved liters were dispensed.
+     * @param amountInLiters liters previously reserved
+     */
+    void dispensed(double amountInLiters) {
+        add(this.reserved, -amountInLiters);
+        add(this.remaining, -amountInLiters);
+    }
+
+    /**
+     * Record that liters were added to the pump.
+     * @param amountInLiters liters added
+     */
+    void restocked(double amountInLiters) {
+        add(this.remaining, amountInLiters);
+        add(this.available, amountInLiters);
+    }
+
+    /**
+     * Atomically add to a double kept as raw bits.
+     * @param target raw double bits
+     * @param delta  value to add
+     */
+    private static void add(AtomicLong target, double delta) {
+        while (true) {
+            long current = target.get();
+            double updated = Double.longBitsToDouble(current) + delta;
+            if (target.compareAndSet(current, Double.doubleToRawLongBits(updated))) {
+                return;
+            }
+        }
+    }
+}
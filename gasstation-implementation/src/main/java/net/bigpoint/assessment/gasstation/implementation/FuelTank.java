@@ -0,0 +1,47 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * An underground tank feeding every pump of a gas type. Customers reserve fuel on its
+ * ledger whatever the pump they fill at, so fills at different pumps never wait for each
+ * other. The liters ever put in the tank are counted with the statistics of the station,
+ * so a snapshot can tell the level of the tank at its cut.
+ * @author gianksp
+ */
+final class FuelTank {
+
+    /**
+     * Fuel of the tank reserved by customers and still available.
+     */
+    private final FuelLedger ledger;
+
+    /**
+     * Liters put in the tank, in millionths of the liter.
+     */
+    private final StatsEpoch.Counter filled;
+
+    /**
+     * Create a tank.
+     * @param liters  liters initially in the tank
+     * @param filled  counter of the liters put in the tank, in millionths of the liter
+     */
+    FuelTank(double liters, StatsEpoch.Counter filled) {
+        this.ledger = new FuelLedger(liters);
+        this.filled = filled;
+    }
+
+    /**
+     * Get the ledger where customers reserve fuel before pumping.
+     * @return fuel ledger
+     */
+    FuelLedger getLedger() {
+        return this.ledger;
+    }
+
+    /**
+     * Get the counter of the liters put in the tank, in millionths of the liter.
+     * @return filled counter
+     */
+    StatsEpoch.Counter getFilled() {
+        return this.filled;
+    }
+}
@@ -0,0 +1,65 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * A customer order, as placed in a batch by a fleet customer.
+ * @author gianksp
+ */
+public final class Order {
+
+    /**
+     * Gas type wanted.
+     */
+    private final GasType type;
+
+    /**
+     * Total liters needed.
+     */
+    private final double amountInLiters;
+
+    /**
+     * Max price willing to pay per liter.
+     */
+    private final double maxPricePerLiter;
+
+    /**
+     * Create an order.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @throws IllegalArgumentException if amountInLiters is not more than 0
+     */
+    public Order(GasType type, double amountInLiters, double maxPricePerLiter) {
+        if (!(amountInLiters > 0)) {
+            throw new IllegalArgumentException("Invalid liters: "+amountInLiters);
+        }
+        this.type = type;
+        this.amountInLiters = amountInLiters;
+        this.maxPricePerLiter = maxPricePerLiter;
+    }
+
+    /**
+     * Get gas type wanted.
+     * @return GasType
+     */
+    public GasType getType() {
+        return this.type;
+    }
+
+    /**
+     * Get total liters needed.
+     * @return liters
+     */
+    public double getAmountInLiters() {
+        return this.amountInLiters;
+    }
+
+    /**
+     * Get max price willing to pay per liter.
+     * @return max price per liter
+     */
+    public double getMaxPricePerLiter() {
+        return this.maxPricePerLiter;
+    }
+}
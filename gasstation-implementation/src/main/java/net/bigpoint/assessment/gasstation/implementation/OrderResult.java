@@ -0,0 +1,82 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * Result of an order placed in a batch.
+ * @author gianksp
+ */
+public final class OrderResult {
+
+    /**
+     * The order.
+     */
+    private final Order order;
+
+    /**
+     * One of the {@link PurchaseOutcome} codes.
+     */
+    private final int outcome;
+
+    /**
+     * Total price for the order, 0 unless sold.
+     */
+    private final double price;
+
+    /**
+     * Version of the price the order was charged at, or turned down at.
+     */
+    private final long priceVersion;
+
+    /**
+     * Create an order result.
+     * @param order        the order
+     * @param outcome      one of the {@link PurchaseOutcome} codes
+     * @param price        total price for the order, 0 unless sold
+     * @param priceVersion version of the price quoted for the order
+     */
+    OrderResult(Order order, int outcome, double price, long priceVersion) {
+        this.order = order;
+        this.outcome = outcome;
+        this.price = price;
+        this.priceVersion = priceVersion;
+    }
+
+    /**
+     * Get the order.
+     * @return Order
+     */
+    public Order getOrder() {
+        return this.order;
+    }
+
+    /**
+     * Get the outcome of the order.
+     * @return one of the {@link PurchaseOutcome} codes
+     */
+    public int getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * Tell whether the order was sold.
+     * @return true if sold
+     */
+    public boolean isSold() {
+        return this.outcome == PurchaseOutcome.SOLD;
+    }
+
+    /**
+     * Get total price for the order.
+     * @return price, 0 unless sold
+     */
+    public double getPrice() {
+        return this.price;
+    }
+
+    /**
+     * Get the version of the price quoted for the order.
+     * @return number of times the price was set when the order was quoted
+     */
+    public long getPriceVersion() {
+        return this.priceVersion;
+    }
+}
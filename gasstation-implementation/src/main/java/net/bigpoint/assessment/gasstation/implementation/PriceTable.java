@@ -0,0 +1,109 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Versioned price per liter of every gas type, kept as primitives indexed by gas type
+ * ordinal. Each gas type has a sequence number, odd while its price is being written,
+ * followed by the raw bits of the price. Readers take a stamp, read the price and validate
+ * the stamp is unchanged, so they never block a writer and never allocate; writers never
+ * wait for readers. The version of a price is the number of times it was set.
+ * @author gianksp
+ */
+final class PriceTable {
+
+    /**
+     * Raw bits of NaN, the price of a gas type not priced yet.
+     */
+    private static final long NOT_SET = Double.doubleToRawLongBits(Double.NaN);
+
+    /**
+     * Sequence of each gas type at twice its ordinal, price bits right after.
+     */
+    private final AtomicLongArray prices = new AtomicLongArray(2 * GasType.values().length);
+
+    /**
+     * Create a table without any price set.
+     */
+    PriceTable() {
+        for (int i = 1; i < this.prices.length(); i += 2) {
+            this.prices.set(i, NOT_SET);
+        }
+    }
+
+    /**
+     * Get the price of a gas type.
+     * @param type GasType
+     * @return price per liter, NaN if not set
+     */
+    double get(GasType type) {
+        while (true) {
+            long stamp = stamp(type);
+            double price = peek(type);
+            if (validate(type, stamp)) {
+                return price;
+            }
+        }
+    }
+
+    /**
+     * Get the stamp of the price of a gas type, waiting out a write in progress.
+     * @param type GasType
+     * @return stamp to validate once the price is read
+     */
+    long stamp(GasType type) {
+        int index = 2 * type.ordinal();
+        while (true) {
+            long sequence = this.prices.get(index);
+            if ((sequence & 1) == 0) {
+                return sequence;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Read the price of a gas type, only valid if the stamp taken before still validates.
+     * @param type GasType
+     * @return price per liter, NaN if not set
+     */
+    double peek(GasType type) {
+        return Double.longBitsToDouble(this.prices.get(2 * type.ordinal() + 1));
+    }
+
+    /**
+     * Check the price of a gas type was not set since the stamp was taken.
+     * @param type  GasType
+     * @param stamp stamp taken before reading the price
+     * @return true if the price read is the one of the stamp
+     */
+    boolean validate(GasType type, long stamp) {
+        return this.prices.get(2 * type.ordinal()) == stamp;
+    }
+
+    /**
+     * Get the version of the price a stamp was taken on.
+     * @param stamp stamp
+     * @return number of times the price was set, 0 if never
+     */
+    static long version(long stamp) {
+        return stamp >>> 1;
+    }
+
+    /**
+     * Set the price of a gas type.
+     * @param type  GasType
+     * @param price price per liter
+     */
+    void set(GasType type, double price) {
+        int index = 2 * type.ordinal();
+        long sequence;
+        //Mark the price as being written, after any write in progress
+        do {
+            sequence = stamp(type);
+        } while (!this.prices.compareAndSet(index, sequence, sequence + 1));
+        this.prices.set(index + 1, Double.doubleToRawLongBits(price));
+        this.prices.set(index, sequence + 2);
+    }
+}
@@ -0,0 +1,489 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Hands the pumps of a gas type to customers in arrival order. A customer finding no
+ * idle pump with enough fuel waits in a bounded FIFO queue, with a lane per
+ * {@link PurchasePriority}; each pump freed goes to the first waiting customer it has
+ * enough fuel for, highest lane first. Customers waiting in a lower lane for longer than
+ * the aging time are served first, so walk-in customers are not starved by fleets. A
+ * customer the pumps freed could not serve may be overtaken a bounded number of times
+ * only: then no customer behind it is served until it is.
+ * <p>
+ * Pumps handed out by the dispatcher are claimed until given back, the customer still
+ * locks the pump while pumping.
+ * @author gianksp
+ */
+final class PumpDispatcher {
+
+    /**
+     * Guards the queue, the claims of the pumps and the statistics.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signaled when a customer leaves a full queue.
+     */
+    private final Condition notFull = this.lock.newCondition();
+
+    /**
+     * Customers waiting for a pump by priority, first come first in each lane.
+     */
+    private final Map<PurchasePriority, ArrayDeque<Waiter>> lanes = new EnumMap<PurchasePriority, ArrayDeque<Waiter>>(PurchasePriority.class);
+
+    /**
+     * Customers waiting for a pump in every lane.
+     */
+    private int waiting;
+
+    /**
+     * Max customers waiting in the queue. Customers arriving at a full queue wait to enter.
+     */
+    private final int capacity;
+
+    /**
+     * Times a waiting customer may be overtaken by customers behind it.
+     */
+    private final int maxOvertakes;
+
+    /**
+     * Time after which a customer in a lower lane is served before the higher lanes, in
+     * nanoseconds.
+     */
+    private long agingNanos;
+
+    /**
+     * Customers that left each lane, by priority ordinal.
+     */
+    private final long[] dequeued = new long[PurchasePriority.values().length];
+
+    /**
+     * Total time waited by the customers that left each lane, in nanoseconds.
+     */
+    private final long[] totalWaitNanos = new long[PurchasePriority.values().length];
+
+    /**
+     * Longest time waited in each lane, in nanoseconds.
+     */
+    private final long[] maxWaitNanos = new long[PurchasePriority.values().length];
+
+    /**
+     * Customers of each lane whose sale completed, by priority ordinal.
+     */
+    private final long[] completed = new long[PurchasePriority.values().length];
+
+    /**
+     * Total time from entering the dispatcher to giving the pump back of the customers
+     * whose sale completed in each lane, in nanoseconds.
+     */
+    private final long[] totalLatencyNanos = new long[PurchasePriority.values().length];
+
+    /**
+     * Longest time from entering the dispatcher to giving the pump back in each lane, in
+     * nanoseconds.
+     */
+    private final long[] maxLatencyNanos = new long[PurchasePriority.values().length];
+
+    /**
+     * Create a dispatcher.
+     * @param capacity      max customers waiting in the queue, all lanes together
+     * @param maxOvertakes  times a waiting customer may be overtaken
+     * @param agingMillis   time after which a customer in a lower lane is served first
+     */
+    PumpDispatcher(int capacity, int maxOvertakes, long agingMillis) {
+        this.capacity = capacity;
+        this.maxOvertakes = maxOvertakes;
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+        for (PurchasePriority priority : PurchasePriority.values()) {
+            this.lanes.put(priority, new ArrayDeque<Waiter>());
+        }
+    }
+
+    /**
+     * Claim an idle pump with enough fuel and reserve the fuel, waiting in the queue if
+     * there is none or other customers are waiting already.
+     * @param type            GasType requested
+     * @param candidates      pumps serving the gas type requested
+     * @param amountInLiters  Total liters needed
+     * @param priority        lane of the customer
+     * @param strategy        order in which pumps are tried
+     * @param order           array where the strategy orders pumps
+     * @param timed           whether the customer gives up at its deadline
+     * @param deadline        when the customer gives up, as System.nanoTime()
+     * @return the claimed pump holding the reservation, or null if no pump has enough fuel
+     *         or the customer gave up
+     */
+    PumpSlot acquire(GasType type, PumpSlot[] candidates, double amountInLiters, PurchasePriority priority,
+            PumpSelectionStrategy strategy, int[] order, boolean timed, long deadline) {
+        this.lock.lock();
+        try {
+            if (this.waiting == 0) {
+                PumpSlot slot = claim(type, candidates, amountInLiters, strategy, order);
+                if (slot != null) {
+                    return slot;
+                }
+                if (!canServe(candidates, amountInLiters)) {
+                    return null;
+                }
+            }
+            while (this.waiting >= this.capacity) {
+                if (!await(this.notFull, timed, deadline)) {
+                    return null;
+                }
+            }
+            Waiter waiter = new Waiter(amountInLiters, priority, this.lock.newCondition());
+            this.lanes.get(priority).addLast(waiter);
+            this.waiting++;
+            //A pump may have been freed while waiting to enter the queue
+            dispatch(type, candidates, strategy, order);
+            while (!waiter.done) {
+                if (!await(waiter.ready, timed, deadline)) {
+                    if (waiter.done) {
+                        //Served while giving up, keep the pump rather than leak its claim
+                        return waiter.slot;
+                    }
+                    //Gave up, leave the queue holding no pump
+                    this.lanes.get(priority).remove(waiter);
+                    finish(waiter, null);
+                    return null;
+                }
+            }
+            return waiter.slot;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Give back a pump claimed through {@link #acquire}, handing it to the next customer.
+     * @param type          GasType of the pump
+     * @param slot          pump given back
+     * @param served        lane of the customer whose sale completed at the pump, null if
+     *                      the pump is given back unused
+     * @param latencyNanos  time from entering the dispatcher to giving the pump back, in
+     *                      nanoseconds
+     * @param candidates    current pumps serving the gas type
+     * @param strategy      order in which pumps are tried
+     * @param order         array where the strategy orders pumps
+     */
+    void release(GasType type, PumpSlot slot, PurchasePriority served, long latencyNanos, PumpSlot[] candidates,
+            PumpSelectionStrategy strategy, int[] order) {
+        this.lock.lock();
+        try {
+            slot.setClaimed(false);
+            if (served != null) {
+                int lane = served.ordinal();
+                this.completed[lane]++;
+                this.totalLatencyNanos[lane] += latencyNanos;
+                this.maxLatencyNanos[lane] = Math.max(this.maxLatencyNanos[lane], latencyNanos);
+            }
+            dispatch(type, candidates, strategy, order);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Hand idle pumps to waiting customers, after pumps were added or removed.
+     * @param type        GasType of the pumps
+     * @param candidates  current pumps serving the gas type
+     * @param strategy    order in which pumps are tried
+     * @param order       array where the strategy orders pumps
+     */
+    void wake(GasType type, PumpSlot[] candidates, PumpSelectionStrategy strategy, int[] order) {
+        this.lock.lock();
+        try {
+            dispatch(type, candidates, strategy, order);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the time after which a customer in a lower lane is served before the higher lanes.
+     * @return aging time in milliseconds
+     */
+    long getAgingMillis() {
+        this.lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis(this.agingNanos);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Set the time after which a customer in a lower lane is served before the higher
+     * lanes. Applies to customers waiting already.
+     * @param agingMillis aging time in milliseconds
+     */
+    void setAgingMillis(long agingMillis) {
+        this.lock.lock();
+        try {
+            this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMillis);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the statistics of the queue, every lane together.
+     * @return queue statistics
+     */
+    QueueStats getStats() {
+        this.lock.lock();
+        try {
+            long dequeuedAll = 0;
+            long totalWait = 0;
+            long maxWait = 0;
+            long completedAll = 0;
+            long totalLatency = 0;
+            long maxLatency = 0;
+            for (int i = 0; i < this.dequeued.length; i++) {
+                dequeuedAll += this.dequeued[i];
+                totalWait += this.totalWaitNanos[i];
+                maxWait = Math.max(maxWait, this.maxWaitNanos[i]);
+                completedAll += this.completed[i];
+                totalLatency += this.totalLatencyNanos[i];
+                maxLatency = Math.max(maxLatency, this.maxLatencyNanos[i]);
+            }
+            return new QueueStats(this.waiting, dequeuedAll, totalWait, maxWait, completedAll, totalLatency, maxLatency);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the statistics of a lane of the queue.
+     * @param priority lane
+     * @return lane statistics
+     */
+    QueueStats getStats(PurchasePriority priority) {
+        this.lock.lock();
+        try {
+            int i = priority.ordinal();
+            return new QueueStats(this.lanes.get(priority).size(), this.dequeued[i], this.totalWaitNanos[i], this.maxWaitNanos[i],
+                    this.completed[i], this.totalLatencyNanos[i], this.maxLatencyNanos[i]);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Hand idle pumps to waiting customers: first the customers of lower lanes waiting for
+     * longer than the aging time, then every lane from the highest, each in arrival order.
+     * Customers no pump has enough fuel for anymore are canceled, every customer if no
+     * pump is left. Called holding the lock.
+     * @param type        GasType of the pumps
+     * @param candidates  current pumps serving the gas type
+     * @param strategy    order in which pumps are tried
+     * @param order       array where the strategy orders pumps
+     */
+    private void dispatch(GasType type, PumpSlot[] candidates, PumpSelectionStrategy strategy, int[] order) {
+        if (candidates.length == 0) {
+            //No pump left to wait for
+            for (ArrayDeque<Waiter> lane : this.lanes.values()) {
+                while (!lane.isEmpty()) {
+                    finish(lane.pollFirst(), null);
+                }
+            }
+            return;
+        }
+        int idle = 0;
+        for (PumpSlot slot : candidates) {
+            if (!slot.isClaimed()) {
+                idle++;
+            }
+        }
+        long agedSince = System.nanoTime() - this.agingNanos;
+        for (PurchasePriority priority : PurchasePriority.values()) {
+            if (priority.ordinal() > 0 && idle > 0) {
+                idle = serve(this.lanes.get(priority), idle, true, agedSince, type, candidates, strategy, order);
+            }
+        }
+        for (PurchasePriority priority : PurchasePriority.values()) {
+            if (idle > 0) {
+                idle = serve(this.lanes.get(priority), idle, false, agedSince, type, candidates, strategy, order);
+            }
+        }
+    }
+
+    /**
+     * Hand idle pumps to the customers of a lane in arrival order. Called holding the lock.
+     * @param lane        customers waiting
+     * @param idle        idle pumps
+     * @param agedOnly    whether to serve only the customers waiting since before agedSince
+     * @param agedSince   when aged customers entered the queue at the latest, as System.nanoTime()
+     * @param type        GasType of the pumps
+     * @param candidates  current pumps serving the gas type
+     * @param strategy    order in which pumps are tried
+     * @param order       array where the strategy orders pumps
+     * @return idle pumps left, 0 if a customer overtaken too many times blocks the queue
+     */
+    private int serve(ArrayDeque<Waiter> lane, int idle, boolean agedOnly, long agedSince, GasType type,
+            PumpSlot[] candidates, PumpSelectionStrategy strategy, int[] order) {
+        Iterator<Waiter> waiters = lane.iterator();
+        while (idle > 0 && waiters.hasNext()) {
+            Waiter waiter = waiters.next();
+            if (agedOnly && waiter.since - agedSince > 0) {
+                //Customers behind entered the lane later still
+                break;
+            }
+            PumpSlot slot = claim(type, candidates, waiter.amountInLiters, strategy, order);
+            if (slot != null) {
+                idle--;
+            } else if (canServe(candidates, waiter.amountInLiters)) {
+                //Let customers behind be served, a bounded number of times
+                if (++waiter.overtakes > this.maxOvertakes) {
+                    return 0;
+                }
+                continue;
+            }
+            waiters.remove();
+            finish(waiter, slot);
+        }
+        return idle;
+    }
+
+    /**
+     * Claim the first idle pump with enough fuel, in the order of the strategy, and reserve
+     * the fuel. Called holding the lock.
+     * @param type            GasType requested
+     * @param candidates      pumps serving the gas type requested
+     * @param amountInLiters  Total liters needed
+     * @param strategy        order in which pumps are tried
+     * @param order           array where the strategy orders pumps
+     * @return the claimed pump or null if no idle pump has enough fuel
+     */
+    private PumpSlot claim(GasType type, PumpSlot[] candidates, double amountInLiters, PumpSelectionStrategy strategy, int[] order) {
+        int count = strategy.order(type, candidates, amountInLiters, order);
+        for (int i = 0; i < count; i++) {
+            PumpSlot slot = candidates[order[i]];
+            if (!slot.isClaimed() && slot.getLedger().tryReserve(amountInLiters)) {
+                slot.setClaimed(true);
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wait for a condition to be signaled. Called holding the lock.
+     * @param condition  condition to wait for
+     * @param timed      whether the customer gives up at its deadline
+     * @param deadline   when the customer gives up, as System.nanoTime()
+     * @return false if the customer gives up: the deadline passed or it was interrupted
+     */
+    private static boolean await(Condition condition, boolean timed, long deadline) {
+        if (!timed) {
+            condition.awaitUninterruptibly();
+            return true;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return false;
+        }
+        try {
+            condition.awaitNanos(remaining);
+            return true;
+        } catch (InterruptedException ex) {
+            //Give up, restore the flag for the caller
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Tell whether any pump, idle or not, has enough fuel left for a customer.
+     * @param candidates      pumps serving the gas type requested
+     * @param amountInLiters  Total liters needed
+     * @return true if a pump may serve the customer once idle
+     */
+    private static boolean canServe(PumpSlot[] candidates, double amountInLiters) {
+        for (PumpSlot slot : candidates) {
+            if (slot.getLedger().getAvailable() >= amountInLiters) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Let a customer out of the queue. Called holding the lock.
+     * @param waiter  customer leaving the queue
+     * @param slot    pump claimed for the customer, null if canceled
+     */
+    private void finish(Waiter waiter, PumpSlot slot) {
+        long waited = System.nanoTime() - waiter.since;
+        int lane = waiter.priority.ordinal();
+        this.waiting--;
+        this.dequeued[lane]++;
+        this.totalWaitNanos[lane] += waited;
+        this.maxWaitNanos[lane] = Math.max(this.maxWaitNanos[lane], waited);
+        waiter.slot = slot;
+        waiter.done = true;
+        waiter.ready.signal();
+        this.notFull.signal();
+    }
+
+    /**
+     * A customer waiting in the queue. Guarded by the lock of the dispatcher.
+     */
+    private static final class Waiter {
+
+        /**
+         * Liters needed.
+         */
+        private final double amountInLiters;
+
+        /**
+         * Lane of the customer.
+         */
+        private final PurchasePriority priority;
+
+        /**
+         * Signaled when the customer leaves the queue.
+         */
+        private final Condition ready;
+
+        /**
+         * When the customer entered the queue, in nanoseconds.
+         */
+        private final long since = System.nanoTime();
+
+        /**
+         * Times customers behind were served first.
+         */
+        private int overtakes;
+
+        /**
+         * Whether the customer left the queue.
+         */
+        private boolean done;
+
+        /**
+         * Pump claimed for the customer, null if canceled.
+         */
+        private PumpSlot slot;
+
+        /**
+         * Create a waiting customer.
+         * @param amountInLiters  Total liters needed
+         * @param priority        lane of the customer
+         * @param ready           signaled when the customer leaves the queue
+         */
+        Waiter(double amountInLiters, PurchasePriority priority, Condition ready) {
+            this.amountInLiters = amountInLiters;
+            this.priority = priority;
+            this.ready = ready;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Built in {@link PumpSelectionStrategy pump selection strategies}.
+ * @author gianksp
+ */
+public final class PumpSelectionStrategies {
+
+    /**
+     * Tries pumps in the order they were added to the station.
+     */
+    private static final PumpSelectionStrategy FIRST_FIT = (GasType type, PumpView[] pumps, double amountInLiters, int[] order) -> {
+        for (int i = 0; i < pumps.length; i++) {
+            order[i] = i;
+        }
+        return pumps.length;
+    };
+
+    /**
+     * Tries pumps with enough fuel, the one with the least fuel first.
+     */
+    private static final PumpSelectionStrategy BEST_FIT = (GasType type, PumpView[] pumps, double amountInLiters, int[] order) ->
+            sortByAvailable(pumps, amountInLiters, order, true);
+
+    /**
+     * Tries pumps with enough fuel, the one with the most fuel first.
+     */
+    private static final PumpSelectionStrategy WORST_FIT = (GasType type, PumpView[] pumps, double amountInLiters, int[] order) ->
+            sortByAvailable(pumps, amountInLiters, order, false);
+
+    /**
+     * Tries the least loaded of two pumps picked at random first.
+     */
+    private static final PumpSelectionStrategy POWER_OF_TWO_CHOICES = (GasType type, PumpView[] pumps, double amountInLiters, int[] order) -> {
+        int size = rotate(pumps.length, ThreadLocalRandom.current().nextInt(pumps.length), order);
+        if (size > 2) {
+            //Swap a second random pump in next to the first one
+            int second = 1 + ThreadLocalRandom.current().nextInt(size - 1);
+            int swapped = order[1];
+            order[1] = order[second];
+            order[second] = swapped;
+        }
+        if (size > 1 && load(pumps[order[1]]) < load(pumps[order[0]])) {
+            int swapped = order[0];
+            order[0] = order[1];
+            order[1] = swapped;
+        }
+        return size;
+    };
+
+    /**
+     * Not to be instantiated.
+     */
+    private PumpSelectionStrategies() {
+    }
+
+    /**
+     * Try pumps in the order they were added to the station, the default. Cheapest, but
+     * small orders drain the first pumps, big pumps included.
+     * @return first fit strategy
+     */
+    public static PumpSelectionStrategy firstFit() {
+        return FIRST_FIT;
+    }
+
+    /**
+     * Try the pump with the least fuel still enough for the order first, keeping the
+     * fullest pumps for big orders. Fewer cancellations because of no gas when order sizes
+     * vary, but customers crowd the same nearly empty pumps.
+     * @return best fit strategy
+     */
+    public static PumpSelectionStrategy bestFit() {
+        return BEST_FIT;
+    }
+
+    /**
+     * Try the pump with the most fuel first, draining pumps evenly.
+     * @return worst fit strategy
+     */
+    public static PumpSelectionStrategy worstFit() {
+        return WORST_FIT;
+    }
+
+    /**
+     * Start each purchase one pump after where the previous purchase of the same gas type
+     * started, spreading customers over the pumps.
+     * @return new round robin strategy, with its own rotation
+     */
+    public static PumpSelectionStrategy roundRobin() {
+        final AtomicIntegerArray next = new AtomicIntegerArray(GasType.values().length);
+        return (GasType type, PumpView[] pumps, double amountInLiters, int[] order) -> {
+            int start = (next.getAndIncrement(type.ordinal()) & Integer.MAX_VALUE) % pumps.length;
+            return rotate(pumps.length, start, order);
+        };
+    }
+
+    /**
+     * Start each purchase one pump after where the previous purchase of the same gas type
+     * on the same thread started, every thread from its own random pump. Spreads customers
+     * over the pumps like {@link #roundRobin()} without a cursor shared by every thread.
+     * @return new rotating strategy, with its own cursors
+     */
+    public static PumpSelectionStrategy rotating() {
+        final ThreadLocal<int[]> cursors = ThreadLocal.withInitial(() -> {
+            int[] cursor = new int[GasType.values().length];
+            for (int i = 0; i < cursor.length; i++) {
+                cursor[i] = ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE);
+            }
+            return cursor;
+        });
+        return (GasType type, PumpView[] pumps, double amountInLiters, int[] order) -> {
+            int[] cursor = cursors.get();
+            int start = (cursor[type.ordinal()]++ & Integer.MAX_VALUE) % pumps.length;
+            return rotate(pumps.length, start, order);
+        };
+    }
+
+    /**
+     * Pick two pumps at random and try the least loaded first, the other one next, then
+     * every other pump from a random start. Customers go to an idle pump most of the time
+     * while looking at two pumps only.
+     * @return power of two choices strategy
+     */
+    public static PumpSelectionStrategy powerOfTwoChoices() {
+        return POWER_OF_TWO_CHOICES;
+    }
+
+    /**
+     * Send each thread to its own home pump per gas type, falling back to the other pumps
+     * only when the home pump is busy or has not enough fuel. Threads serving the same
+     * customers keep using the same pump, so its lock, ledger and state stay in the cache
+     * of their core instead of moving between cores. Homes are handed out in turn, so
+     * threads are spread evenly over the pumps.
+     * @return new affinity strategy, with its own homes
+     */
+    public static PumpSelectionStrategy affinity() {
+        final AtomicIntegerArray nextHome = new AtomicIntegerArray(GasType.values().length);
+        final ThreadLocal<int[]> homes = ThreadLocal.withInitial(() -> {
+            int[] home = new int[GasType.values().length];
+            Arrays.fill(home, -1);
+            return home;
+        });
+        return (GasType type, PumpView[] pumps, double amountInLiters, int[] order) -> {
+            int[] home = homes.get();
+            if (home[type.ordinal()] < 0) {
+                home[type.ordinal()] = nextHome.getAndIncrement(type.ordinal()) & Integer.MAX_VALUE;
+            }
+            //Pumps added later move some homes, that is fine
+            int start = home[type.ordinal()] % pumps.length;
+            PumpView preferred = pumps[start];
+            if (!preferred.isBusy() && preferred.getAvailableAmount() >= amountInLiters) {
+                return rotate(pumps.length, start, order);
+            }
+            //Every other pump first, the home pump last
+            return rotate(pumps.length, start + 1, order);
+        };
+    }
+
+    /**
+     * Fill an order of every pump starting at a given pump.
+     * @param size   number of pumps
+     * @param start  index of the first pump
+     * @param order  filled with the indexes of the pumps
+     * @return number of pumps
+     */
+    private static int rotate(int size, int start, int[] order) {
+        for (int i = 0; i < size; i++) {
+            order[i] = (start + i) % size;
+        }
+        return size;
+    }
+
+    /**
+     * Get how busy a pump is.
+     * @param pump pump
+     * @return 0 if idle, else one more than the customers waiting
+     */
+    private static int load(PumpView pump) {
+        return pump.isBusy() ? pump.getQueueLength() + 1 : 0;
+    }
+
+    /**
+     * Order pumps with enough fuel by the fuel they have available. Insertion sort, as a
+     * gas type has few pumps and it needs no memory.
+     * @param pumps           pumps serving the gas type
+     * @param amountInLiters  Total liters needed
+     * @param order           filled with the indexes of the pumps
+     * @param ascending       true for the pump with the least fuel first
+     * @return number of pumps with enough fuel
+     */
+    private static int sortByAvailable(PumpView[] pumps, double amountInLiters, int[] order, boolean ascending) {
+        int count = 0;
+        for (int i = 0; i < pumps.length; i++) {
+            double available = pumps[i].getAvailableAmount();
+            if (available < amountInLiters) {
+                continue;
+            }
+            int j = count++;
+            //Fuel of pumps already placed may change meanwhile, the order is best effort
+            while (j > 0 && (ascending
+                    ? pumps[order[j - 1]].getAvailableAmount() > available
+                    : pumps[order[j - 1]].getAvailableAmount() < available)) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        return count;
+    }
+}
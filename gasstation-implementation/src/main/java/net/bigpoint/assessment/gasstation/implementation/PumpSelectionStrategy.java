@@ -0,0 +1,27 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Chooses in which order a station tries the pumps of a gas type for a purchase. The
+ * station reserves fuel on the first pump of the order able to serve, so the strategy
+ * decides which pumps get drained first. Built in strategies are in
+ * {@link PumpSelectionStrategies}.
+ * <p>
+ * Called on every purchase by many threads at once: implementations must be thread-safe
+ * and should not allocate.
+ * @author gianksp
+ */
+public interface PumpSelectionStrategy {
+
+    /**
+     * Order the pumps of a gas type for a purchase.
+     * @param type            GasType requested
+     * @param pumps           pumps serving the gas type, in the order they were added. Not to be modified
+     * @param amountInLiters  Total liters needed
+     * @param order           filled with the indexes in pumps of the pumps to try, first one first.
+     *                        At least as long as pumps
+     * @return number of indexes written to order. Pumps left out are not tried
+     */
+    int order(GasType type, PumpView[] pumps, double amountInLiters, int[] order);
+}
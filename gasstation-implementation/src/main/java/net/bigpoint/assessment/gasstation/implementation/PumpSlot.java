@@ -0,0 +1,239 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import net.bigpoint.assessment.gasstation.GasPump;
+
+/**
+ * A gas pump as the station sees it: the pump itself, the ledger of its reserved fuel and
+ * the lock that guarantees only one customer at a time is pumping, as {@link GasPump} is
+ * not thread-safe.
+ * @author gianksp
+ */
+final class PumpSlot implements PumpView {
+
+    /**
+     * The pump served through this slot. Replaced by a restocked pump while holding the lock.
+     */
+    private volatile GasPump pump;
+
+    /**
+     * The pump added to the station, which still names the slot once restocking replaced it.
+     */
+    private final GasPump added;
+
+    /**
+     * Exclusive access to the pump. Fair, so customers waiting on a busy pump are served
+     * in arrival order.
+     */
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    /**
+     * Fuel of the pump reserved by customers and still available. Shared by all pumps
+     * fed by the same tank.
+     */
+    private final FuelLedger ledger;
+
+    /**
+     * Whether the pump is fed by a tank rather than its own fuel.
+     */
+    private final boolean tankFed;
+
+    /**
+     * Liters the pump had when added to the station.
+     */
+    private final double initialAmount;
+
+    /**
+     * Liters dispensed by the pump, in millionths of the liter.
+     */
+    private final StatsEpoch.Counter dispensed;
+
+    /**
+     * Liters added to the pump by restocking, in millionths of the liter.
+     */
+    private final StatsEpoch.Counter restocked;
+
+    /**
+     * Whether a refill of the pump is scheduled and not done yet.
+     */
+    private final AtomicBoolean refillPending = new AtomicBoolean();
+
+    /**
+     * Whether the pump is handed to a customer by the dispatcher of its gas type. Guarded
+     * by the lock of the dispatcher.
+     */
+    private boolean claimed;
+
+    /**
+     * Whether the pump is out of service, so no new customer is sent to it.
+     */
+    private volatile boolean outOfService;
+
+    /**
+     * Create a slot for a pump.
+     * @param pump      GasPump item
+     * @param tank      ledger of the tank feeding the pump, null if the pump has its own fuel
+     * @param dispensed counter of the liters dispensed, in millionths of the liter
+     * @param restocked counter of the liters restocked, in millionths of the liter, the
+     *                  counter of the tank for a pump fed by one
+     */
+    PumpSlot(GasPump pump, FuelLedger tank, StatsEpoch.Counter dispensed, StatsEpoch.Counter restocked) {
+        this.pump = pump;
+        this.added = pump;
+        this.initialAmount = pump.getRemainingAmount();
+        this.ledger = tank == null ? new FuelLedger(this.initialAmount) : tank;
+        this.tankFed = tank != null;
+        this.dispensed = dispensed;
+        this.restocked = restocked;
+    }
+
+    /**
+     * Get the pump served through this slot. Read it holding the lock to get the pump a
+     * customer pumps from, as restocking replaces it.
+     * @return GasPump
+     */
+    public GasPump getPump() {
+        return this.pump;
+    }
+
+    /**
+     * Tell whether a pump names this slot: the pump served through it or the one added to
+     * the station.
+     * @param gasPump GasPump item
+     * @return true if the pump names this slot
+     */
+    boolean isPump(GasPump gasPump) {
+        return this.pump == gasPump || this.added == gasPump;
+    }
+
+    /**
+     * Get liters of the pump not reserved by any customer yet.
+     * @return liters available
+     */
+    public double getAvailableAmount() {
+        return this.ledger.getAvailable();
+    }
+
+    /**
+     * Tell whether a customer holds the pump.
+     * @return true if busy
+     */
+    public boolean isBusy() {
+        return this.lock.isLocked();
+    }
+
+    /**
+     * Get an estimate of the customers waiting for the pump.
+     * @return customers waiting
+     */
+    public int getQueueLength() {
+        return this.lock.getQueueLength();
+    }
+
+    /**
+     * Get the ledger where customers reserve fuel before pumping.
+     * @return fuel ledger
+     */
+    FuelLedger getLedger() {
+        return this.ledger;
+    }
+
+    /**
+     * Tell whether the pump is fed by a tank, so its own fuel is meaningless.
+     * @return true if fed by a tank
+     */
+    boolean isTankFed() {
+        return this.tankFed;
+    }
+
+    /**
+     * Get liters the pump had when added to the station.
+     * @return initial liters
+     */
+    double getInitialAmount() {
+        return this.initialAmount;
+    }
+
+    /**
+     * Get the counter of the liters dispensed by the pump, in millionths of the liter.
+     * @return dispensed counter
+     */
+    StatsEpoch.Counter getDispensed() {
+        return this.dispensed;
+    }
+
+    /**
+     * Get the counter of the liters restocked, in millionths of the liter.
+     * @return restocked counter
+     */
+    StatsEpoch.Counter getRestocked() {
+        return this.restocked;
+    }
+
+    /**
+     * Replace the pump by a restocked one with more fuel. Called holding the lock, so no
+     * customer is pumping meanwhile.
+     * @param restockedPump  pump replacing the current one
+     * @param liters         liters the new pump has more than the current one
+     */
+    void restock(GasPump restockedPump, double liters) {
+        this.pump = restockedPump;
+        this.ledger.restocked(liters);
+    }
+
+    /**
+     * Mark a refill of the pump as scheduled.
+     * @return true if marked, false if a refill was scheduled already
+     */
+    boolean scheduleRefill() {
+        return this.refillPending.compareAndSet(false, true);
+    }
+
+    /**
+     * Mark the scheduled refill of the pump as done.
+     */
+    void refillDone() {
+        this.refillPending.set(false);
+    }
+
+    /**
+     * Get the lock a customer must hold while pumping.
+     * @return pump lock
+     */
+    ReentrantLock getLock() {
+        return this.lock;
+    }
+
+    /**
+     * Tell whether the pump is handed to a customer by the dispatcher of its gas type.
+     * @return true if claimed
+     */
+    boolean isClaimed() {
+        return this.claimed;
+    }
+
+    /**
+     * Set whether the pump is handed to a customer by the dispatcher of its gas type.
+     * @param claimed true if claimed
+     */
+    void setClaimed(boolean claimed) {
+        this.claimed = claimed;
+    }
+
+    /**
+     * Tell whether the pump is out of service.
+     * @return true if out of service
+     */
+    boolean isOutOfService() {
+        return this.outOfService;
+    }
+
+    /**
+     * Set whether the pump is out of service.
+     * @param outOfService true if out of service
+     */
+    void setOutOfService(boolean outOfService) {
+        this.outOfService = outOfService;
+    }
+}
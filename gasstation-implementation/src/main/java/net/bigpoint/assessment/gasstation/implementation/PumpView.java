@@ -0,0 +1,35 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import net.bigpoint.assessment.gasstation.GasPump;
+
+/**
+ * A pump of the station as a {@link PumpSelectionStrategy} sees it. Values are read live,
+ * they may change while the strategy looks at them.
+ * @author gianksp
+ */
+public interface PumpView {
+
+    /**
+     * Get the pump.
+     * @return GasPump
+     */
+    GasPump getPump();
+
+    /**
+     * Get liters of the pump not reserved by any customer yet.
+     * @return liters available
+     */
+    double getAvailableAmount();
+
+    /**
+     * Tell whether a customer is pumping gas at the pump.
+     * @return true if busy
+     */
+    boolean isBusy();
+
+    /**
+     * Get an estimate of the customers waiting for the pump.
+     * @return customers waiting
+     */
+    int getQueueLength();
+}
@@ -0,0 +1,41 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * Outcome codes of a purchase. Plain ints so reporting an outcome never allocates.
+ * @author gianksp
+ */
+public final class PurchaseOutcome {
+
+    /**
+     * The gas was sold.
+     */
+    public static final int SOLD = 0;
+
+    /**
+     * Canceled because no single pump had enough gas of the type requested.
+     */
+    public static final int NO_GAS = 1;
+
+    /**
+     * Canceled because the gas is more expensive than what the customer wanted to pay.
+     */
+    public static final int TOO_EXPENSIVE = 2;
+
+    /**
+     * Rejected by admission control, the station being too busy to take the customer in time.
+     */
+    public static final int REJECTED = 3;
+
+    /**
+     * Canceled because no pump with enough fuel was available before the timeout of the
+     * customer. A customer no pump has enough fuel for gets {@link #NO_GAS}, even past the
+     * timeout.
+     */
+    public static final int TIMEOUT = 4;
+
+    /**
+     * Not to be instantiated.
+     */
+    private PurchaseOutcome() {
+    }
+}
@@ -0,0 +1,22 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * Priority class of a purchase. In {@link AcquisitionMode#QUEUED queued mode} each class
+ * waits in its own lane of the queue of the gas type, and a pump freed goes to the highest
+ * lane first. Declared from the highest priority to the lowest.
+ * @author gianksp
+ */
+public enum PurchasePriority {
+
+    /**
+     * Contract fleet customers, served before walk-in customers.
+     */
+    FLEET,
+
+    /**
+     * Walk-in customers, the default. Served after fleet customers, unless they have been
+     * waiting for long.
+     */
+    WALK_IN;
+
+}
@@ -0,0 +1,63 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * Reusable holder of the result of a purchase made with
+ * {@link Station#tryBuyGas(net.bigpoint.assessment.gasstation.GasType, double, double, PurchaseResult)}.
+ * Not thread-safe: keep one per thread and reuse it from purchase to purchase.
+ * @author gianksp
+ */
+public final class PurchaseResult {
+
+    /**
+     * One of the {@link PurchaseOutcome} codes.
+     */
+    private int outcome;
+
+    /**
+     * Total price for the transaction, 0 unless sold.
+     */
+    private double price;
+
+    /**
+     * Version of the price quoted for the transaction.
+     */
+    private long priceVersion;
+
+    /**
+     * Get the outcome of the last purchase.
+     * @return one of the {@link PurchaseOutcome} codes
+     */
+    public int getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * Get total price for the last purchase.
+     * @return price, 0 unless sold
+     */
+    public double getPrice() {
+        return this.price;
+    }
+
+    /**
+     * Get the version of the price quoted for the last purchase.
+     * @return number of times the price was set when the purchase was quoted
+     */
+    public long getPriceVersion() {
+        return this.priceVersion;
+    }
+
+    /**
+     * Record the result of a purchase.
+     * @param outcome      one of the {@link PurchaseOutcome} codes
+     * @param price        total price, 0 unless sold
+     * @param priceVersion version of the price quoted
+     * @return the outcome
+     */
+    int set(int outcome, double price, long priceVersion) {
+        this.outcome = outcome;
+        this.price = price;
+        this.priceVersion = priceVersion;
+        return outcome;
+    }
+}
@@ -0,0 +1,125 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * Statistics of the customer queue of a gas type, taken at one point in time: the wait
+ * in the queue for a pump, and the latency of the sales from entering the queue to giving
+ * the pump back.
+ * @author gianksp
+ */
+public final class QueueStats {
+
+    /**
+     * Customers waiting in the queue.
+     */
+    private final int length;
+
+    /**
+     * Customers that left the queue, with a pump or canceled.
+     */
+    private final long dequeued;
+
+    /**
+     * Total time waited in the queue by the customers that left it, in nanoseconds.
+     */
+    private final long totalWaitNanos;
+
+    /**
+     * Longest time waited in the queue, in nanoseconds.
+     */
+    private final long maxWaitNanos;
+
+    /**
+     * Sales completed.
+     */
+    private final long completed;
+
+    /**
+     * Total latency of the sales completed, in nanoseconds.
+     */
+    private final long totalLatencyNanos;
+
+    /**
+     * Longest latency of a sale, in nanoseconds.
+     */
+    private final long maxLatencyNanos;
+
+    /**
+     * Create queue statistics.
+     * @param length             customers waiting in the queue
+     * @param dequeued           customers that left the queue
+     * @param totalWaitNanos     total time waited by the customers that left the queue, in nanoseconds
+     * @param maxWaitNanos       longest time waited in the queue, in nanoseconds
+     * @param completed          sales completed
+     * @param totalLatencyNanos  total latency of the sales completed, in nanoseconds
+     * @param maxLatencyNanos    longest latency of a sale, in nanoseconds
+     */
+    QueueStats(int length, long dequeued, long totalWaitNanos, long maxWaitNanos, long completed, long totalLatencyNanos,
+            long maxLatencyNanos) {
+        this.length = length;
+        this.dequeued = dequeued;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.completed = completed;
+        this.totalLatencyNanos = totalLatencyNanos;
+        this.maxLatencyNanos = maxLatencyNanos;
+    }
+
+    /**
+     * Get the customers waiting in the queue.
+     * @return queue depth
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Get the customers that left the queue, handed a pump or canceled because no pump
+     * had enough gas anymore.
+     * @return customers dequeued
+     */
+    public long getDequeued() {
+        return this.dequeued;
+    }
+
+    /**
+     * Get the average time waited in the queue by the customers that left it.
+     * @return average wait in milliseconds, 0 if no customer left the queue
+     */
+    public double getAverageWaitMillis() {
+        return this.dequeued == 0 ? 0 : this.totalWaitNanos / 1e6 / this.dequeued;
+    }
+
+    /**
+     * Get the longest time waited in the queue.
+     * @return longest wait in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return this.maxWaitNanos / 1e6;
+    }
+
+    /**
+     * Get the sales completed, whether the customer waited in the queue or found an idle
+     * pump.
+     * @return sales completed
+     */
+    public long getCompleted() {
+        return this.completed;
+    }
+
+    /**
+     * Get the average latency of the sales completed, from entering the queue to giving
+     * the pump back: the wait for a pump plus the fill.
+     * @return average latency in milliseconds, 0 if no sale completed
+     */
+    public double getAverageLatencyMillis() {
+        return this.completed == 0 ? 0 : this.totalLatencyNanos / 1e6 / this.completed;
+    }
+
+    /**
+     * Get the longest latency of a sale, from entering the queue to giving the pump back.
+     * @return longest latency in milliseconds
+     */
+    public double getMaxLatencyMillis() {
+        return this.maxLatencyNanos / 1e6;
+    }
+}
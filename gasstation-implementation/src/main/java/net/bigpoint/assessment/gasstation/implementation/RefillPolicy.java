@@ -0,0 +1,48 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+/**
+ * When and how much a station refills its pumps on its own: a pump left with less than
+ * the threshold after a sale is refilled up to the capacity, in the background.
+ * @author gianksp
+ */
+public final class RefillPolicy {
+
+    /**
+     * Liters left below which a pump is refilled.
+     */
+    private final double thresholdLiters;
+
+    /**
+     * Liters a pump is refilled up to.
+     */
+    private final double capacityLiters;
+
+    /**
+     * Create a refill policy.
+     * @param thresholdLiters  liters left below which a pump is refilled
+     * @param capacityLiters   liters a pump is refilled up to, more than the threshold
+     */
+    public RefillPolicy(double thresholdLiters, double capacityLiters) {
+        if (!(thresholdLiters >= 0 && capacityLiters > thresholdLiters)) {
+            throw new IllegalArgumentException("Invalid refill policy: "+thresholdLiters+", "+capacityLiters);
+        }
+        this.thresholdLiters = thresholdLiters;
+        this.capacityLiters = capacityLiters;
+    }
+
+    /**
+     * Get the liters left below which a pump is refilled.
+     * @return threshold in liters
+     */
+    public double getThresholdLiters() {
+        return this.thresholdLiters;
+    }
+
+    /**
+     * Get the liters a pump is refilled up to.
+     * @return capacity in liters
+     */
+    public double getCapacityLiters() {
+        return this.capacityLiters;
+    }
+}
@@ -2,70 +2,294 @@ package net.bigpoint.assessment.gasstation.implementation;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
+import net.bigpoint.assessment.gasstation.AsyncGasStation;
 import net.bigpoint.assessment.gasstation.GasPump;
-import net.bigpoint.assessment.gasstation.GasStation;
 import net.bigpoint.assessment.gasstation.GasType;
 import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
 import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+import net.bigpoint.assessment.gasstation.exceptions.StationBusyException;
 
 /**
  * Gas station facility class, it includes multiple gas pumps for different types of fuel
  * at different prices.
  * @author gianksp
  */
-public class Station implements GasStation{
+public class Station implements AsyncGasStation{
     
     /**
      * Logger instance. For assessment purposes logging will be extensively used.
      */
     private static final Logger LOG = Logger.getLogger(Station.class.getName());
     
+    /**
+     * Max time a customer waits on a busy pump in non blocking mode before looking
+     * again at every pump of the type requested.
+     */
+    private static final long BUSY_WAIT_MILLIS = 50;
+    
+    /**
+     * Time an idle worker of the default asynchronous executor is kept.
+     */
+    private static final long ASYNC_KEEP_ALIVE_SECONDS = 60;
+    
+    /**
+     * Revenue and volumes are kept in millionths of the currency unit or of the liter,
+     * exact whatever the volume.
+     */
+    private static final long MICROS_PER_UNIT = 1000000;
+    
+    /**
+     * Shared, stackless exception thrown in fast reject mode when gas is too expensive.
+     */
+    private static final GasTooExpensiveException TOO_EXPENSIVE = new GasTooExpensiveException("Gas too expensive", false);
+    
+    /**
+     * Shared, stackless exception thrown in fast reject mode when there is not enough gas.
+     */
+    private static final NotEnoughGasException NOT_ENOUGH_GAS = new NotEnoughGasException("Not enough gas", false);
+    
+    /**
+     * Timeout of purchases waiting as long as needed for a pump.
+     */
+    private static final long NO_TIMEOUT = -1;
+    
+    /**
+     * Max customers waiting in the queue of a gas type in queued mode.
+     */
+    private static final int QUEUE_CAPACITY = 1024;
+    
+    /**
+     * Times a customer waiting in the queue of a gas type may be overtaken by customers
+     * behind it needing less fuel.
+     */
+    private static final int QUEUE_MAX_OVERTAKES = 16;
+    
+    /**
+     * Default time after which a walk-in customer waiting in queued mode is served before
+     * fleet customers, bounding its wait when fleets saturate the station.
+     */
+    private static final long QUEUE_AGING_MILLIS = 2000;
+    
+    /**
+     * Shared, stackless exception thrown in fast reject mode when admission is refused.
+     */
+    private static final StationBusyException BUSY = new StationBusyException("Station busy", false);
+    
+    /**
+     * Events buffered at most by the default event sink.
+     */
+    private static final int EVENT_LOG_CAPACITY = 8192;
+    
+    /**
+     * Event sink shared by every station unless set otherwise, logging sales from one
+     * background thread parked while there is nothing to log.
+     */
+    private static final AsyncLoggingEventSink SHARED_EVENT_SINK = new AsyncLoggingEventSink(LOG, EVENT_LOG_CAPACITY);
+    
     /**
      * Collection of Gas Pumps this station has.
      */
     private CopyOnWriteArrayList<GasPump> pumps = new CopyOnWriteArrayList<GasPump>();
     
     /**
-     * Map with list of gas types and corresponding prices.
+     * Guards changes to the station setup: pumps and the default asynchronous executor.
+     * A j.u.c. lock rather than a monitor so virtual threads never pin their carrier.
+     */
+    private final ReentrantLock setupLock = new ReentrantLock();
+    
+    /**
+     * Index of Gas Pumps in service by gas type, so a customer only looks at the pumps
+     * serving the gas type requested. Copy on write: the map and its arrays are never
+     * modified once published, any change of the pumps replaces the whole index. Gas types
+     * without a pump in service are left out.
+     */
+    private volatile Map<GasType, PumpSlot[]> pumpsByType = new EnumMap<GasType, PumpSlot[]>(GasType.class);
+    
+    /**
+     * Every Gas Pump of the station by gas type, in service or not. Copy on write like the
+     * index of pumps in service.
+     */
+    private volatile Map<GasType, PumpSlot[]> installed = new EnumMap<GasType, PumpSlot[]>(GasType.class);
+    
+    /**
+     * Upper bound of the liters left in the fullest pump of each gas type, as raw double
+     * bits by gas type ordinal, so a request no single pump can serve is canceled without
+     * looking at any pump. Raised as soon as a pump is added and only lowered by a refresh
+     * seeing every pump, so it is never below the actual amount left.
+     */
+    private final AtomicLongArray maxRemaining = new AtomicLongArray(GasType.values().length);
+    
+    /**
+     * Lock of the bound of each gas type, so a refresh never lowers a bound raised meanwhile.
+     */
+    private final ReentrantLock[] maxRemainingLocks = newLocks(GasType.values().length);
+    
+    /**
+     * How pumps are handed to customers.
+     */
+    private volatile AcquisitionMode acquisitionMode = AcquisitionMode.BLOCKING;
+    
+    /**
+     * Order in which the pumps of a gas type are tried.
+     */
+    private volatile PumpSelectionStrategy selectionStrategy = PumpSelectionStrategies.firstFit();
+    
+    /**
+     * Dispatcher of the pumps of each gas type in queued mode, by gas type ordinal.
+     */
+    private final PumpDispatcher[] dispatchers = newDispatchers(GasType.values().length);
+    
+    /**
+     * Gate letting customers in within the admission limits of each gas type, by gas type
+     * ordinal. Null for gas types without limits.
+     */
+    private final AtomicReferenceArray<AdmissionGate> admission = new AtomicReferenceArray<AdmissionGate>(GasType.values().length);
+    
+    /**
+     * Admission limits of each gas type, by gas type ordinal. Null for no limits.
+     */
+    private final AtomicReferenceArray<AdmissionLimits> admissionLimits = new AtomicReferenceArray<AdmissionLimits>(GasType.values().length);
+    
+    /**
+     * Underground tank feeding all pumps of each gas type, by gas type ordinal. Null for
+     * gas types whose pumps have their own fuel.
+     */
+    private final AtomicReferenceArray<FuelTank> tanks = new AtomicReferenceArray<FuelTank>(GasType.values().length);
+    
+    /**
+     * Indexes of pumps ordered by the selection strategy, reused by each thread so a
+     * purchase does not allocate.
+     */
+    private final ThreadLocal<int[]> selectionOrder = new ThreadLocal<int[]>();
+    
+    /**
+     * Receives the events of the station.
+     */
+    private volatile StationEventSink eventSink = SHARED_EVENT_SINK;
+    
+    /**
+     * Whether canceled sales throw shared stackless exceptions.
+     */
+    private volatile boolean fastReject = false;
+    
+    /**
+     * Executor running asynchronous purchases. Null for the default executors.
+     */
+    private volatile Executor asyncExecutor;
+    
+    /**
+     * When pumps are refilled on their own, null for never.
+     */
+    private volatile RefillPolicy refillPolicy;
+    
+    /**
+     * Executor refilling pumps in the background. Null until the first refill.
+     */
+    private ThreadPoolExecutor refillExecutor;
+    
+    /**
+     * Default executors for asynchronous purchases, by gas type ordinal. Each has one worker
+     * per pump of its gas type, so orders of a gas type never wait for workers busy with
+     * orders of another one. Null until created.
+     */
+    private final AtomicReferenceArray<ThreadPoolExecutor> defaultAsyncExecutors = new AtomicReferenceArray<ThreadPoolExecutor>(GasType.values().length);
+    
+    /**
+     * Table with list of gas types and corresponding prices.
+     */
+    private final PriceTable prices = new PriceTable();
+    
+    /**
+     * Epoch of every station counter, so a snapshot reads them all at one point in time.
+     * Counters are striped so concurrent sales do not contend on a single cache line.
      */
-    private ConcurrentMap<GasType, Double> prices = new ConcurrentHashMap<GasType, Double>();
+    private final StatsEpoch stats = new StatsEpoch();
     
     /**
-     * Total revenue of the station.
+     * Total revenue of the station, in millionths of the currency unit.
      */
-    private AtomicLong revenue = new AtomicLong(0);
+    private final StatsEpoch.Counter revenue = stats.newCounter();
     
     /**
      * Total sales of the station.
      */
-    private AtomicInteger salesNumber = new AtomicInteger(0);
+    private final StatsEpoch.Counter salesNumber = stats.newCounter();
     
     /**
      * Total transactions canceled because of no gas.
      */
-    private AtomicInteger cancellationNoGas = new AtomicInteger(0);
+    private final StatsEpoch.Counter cancellationNoGas = stats.newCounter();
     
     /**
      * Total transactions canceled because of too expensive gas.
      */
-    private AtomicInteger cancellationTooExpensive = new AtomicInteger(0);
+    private final StatsEpoch.Counter cancellationTooExpensive = stats.newCounter();
+    
+    /**
+     * Total transactions rejected by admission control.
+     */
+    private final StatsEpoch.Counter cancellationRejected = stats.newCounter();
+    
+    /**
+     * Total transactions canceled because no pump was available before their timeout.
+     */
+    private final StatsEpoch.Counter cancellationTimeout = stats.newCounter();
+    
+    /**
+     * Liters sold by gas type ordinal, in millionths of the liter.
+     */
+    private final StatsEpoch.Counter[] volumes = newCounters(GasType.values().length);
 
     /**
-     * Get collection of Gas Pumps this station has.
+     * Create a station running every asynchronous purchase on its own virtual thread, so
+     * customers waiting for a pump or pumping cost no platform thread. Pumps are guarded by
+     * j.u.c. locks, never monitors, so a waiting customer does not pin its carrier thread.
+     * Virtual threads need Java 21.
+     * @return new station
+     * @throws UnsupportedOperationException if the runtime has no virtual threads
+     */
+    public static Station withVirtualThreads() {
+        Executor executor = newVirtualThreadPerTaskExecutor();
+        if (executor == null) {
+            throw new UnsupportedOperationException("Virtual threads not supported by this runtime");
+        }
+        Station station = new Station();
+        station.setAsyncExecutor(executor);
+        return station;
+    }
+    
+    /**
+     * Get collection of Gas Pumps this station has. The collection is a read-only view:
+     * pumps are added and removed through the station only.
      * @return Collection of GasPumps
      */
     public Collection<GasPump> getGasPumps() {
-        return this.pumps;
+        return Collections.unmodifiableList(this.pumps);
     }
         
     /**
@@ -73,7 +297,365 @@ public class Station implements GasStation{
      * @param pump GasPump item
      */
     public void addGasPump(GasPump pump) {
-        this.pumps.add(pump);
+        this.setupLock.lock();
+        try {
+            this.pumps.add(pump);
+            Map<GasType, PumpSlot[]> all = new EnumMap<GasType, PumpSlot[]>(this.installed);
+            PumpSlot[] current = all.get(pump.getGasType());
+            PumpSlot[] updated = current == null ? new PumpSlot[1] : Arrays.copyOf(current, current.length + 1);
+            FuelTank tank = this.tanks.get(pump.getGasType().ordinal());
+            //Restocking a pump fed by a tank fills the tank
+            PumpSlot slot = tank == null ? new PumpSlot(pump, null, this.stats.newCounter(), this.stats.newCounter())
+                    : new PumpSlot(pump, tank.getLedger(), this.stats.newCounter(), tank.getFilled());
+            updated[updated.length - 1] = slot;
+            all.put(pump.getGasType(), updated);
+            this.installed = all;
+            reindex(pump.getGasType());
+            raiseMaxRemaining(pump.getGasType(), slot.getLedger().getRemaining());
+            //Customers waiting for a pump of the type may be served by the new one
+            wake(pump.getGasType());
+            //One more pump can be used at once, give the default executor of the type one more worker
+            ThreadPoolExecutor executor = this.defaultAsyncExecutors.get(pump.getGasType().ordinal());
+            if (executor != null) {
+                executor.setMaximumPoolSize(updated.length);
+                executor.setCorePoolSize(updated.length);
+            }
+        } finally {
+            this.setupLock.unlock();
+        }
+    }
+
+    /**
+     * Remove a GasPump from the station. No new customer is sent to it; customers already
+     * pumping at it finish their fill. Once no pump of the gas type is left, customers
+     * waiting in queued mode are turned away as if there was not enough gas.
+     * @param pump GasPump item
+     * @return true if removed, false if the pump was not in the station
+     */
+    public boolean removeGasPump(GasPump pump) {
+        this.setupLock.lock();
+        try {
+            PumpSlot slot = findSlot(pump);
+            if (slot == null) {
+                return false;
+            }
+            this.pumps.remove(slot.getPump());
+            Map<GasType, PumpSlot[]> all = new EnumMap<GasType, PumpSlot[]>(this.installed);
+            List<PumpSlot> remaining = new ArrayList<PumpSlot>(Arrays.asList(all.get(pump.getGasType())));
+            remaining.remove(slot);
+            if (remaining.isEmpty()) {
+                all.remove(pump.getGasType());
+            } else {
+                all.put(pump.getGasType(), remaining.toArray(new PumpSlot[remaining.size()]));
+            }
+            this.installed = all;
+            reindex(pump.getGasType());
+            refreshMaxRemaining(pump.getGasType());
+            //Customers waiting for a pump of the type give up if none is left
+            wake(pump.getGasType());
+            ThreadPoolExecutor executor = this.defaultAsyncExecutors.get(pump.getGasType().ordinal());
+            if (executor != null) {
+                executor.setCorePoolSize(Math.max(1, remaining.size()));
+                executor.setMaximumPoolSize(Math.max(1, remaining.size()));
+            }
+            return true;
+        } finally {
+            this.setupLock.unlock();
+        }
+    }
+
+    /**
+     * Tell whether a GasPump of the station is out of service.
+     * @param pump GasPump item
+     * @return true if out of service
+     */
+    public boolean isOutOfService(GasPump pump) {
+        PumpSlot slot = findSlot(pump);
+        if (slot == null) {
+            throw new IllegalArgumentException("Gas pump not in the station");
+        }
+        return slot.isOutOfService();
+    }
+
+    /**
+     * Take a GasPump of the station out of service, for maintenance, or back in service.
+     * Out of service, no new customer is sent to the pump while customers already pumping
+     * at it finish their fill; it still counts among the pumps of the station. The pumps
+     * customers look at are an index rebuilt on each change, so purchases pay nothing for
+     * this.
+     * @param pump          GasPump item
+     * @param outOfService  true to take the pump out of service, false to put it back
+     */
+    public void setOutOfService(GasPump pump, boolean outOfService) {
+        this.setupLock.lock();
+        try {
+            PumpSlot slot = findSlot(pump);
+            if (slot == null) {
+                throw new IllegalArgumentException("Gas pump not in the station");
+            }
+            if (slot.isOutOfService() == outOfService) {
+                return;
+            }
+            slot.setOutOfService(outOfService);
+            reindex(pump.getGasType());
+            if (outOfService) {
+                refreshMaxRemaining(pump.getGasType());
+            } else {
+                raiseMaxRemaining(pump.getGasType(), slot.getLedger().getRemaining());
+            }
+            wake(pump.getGasType());
+        } finally {
+            this.setupLock.unlock();
+        }
+    }
+
+    /**
+     * Restock a GasPump of the station with more fuel. GasPump can only be drained, so the
+     * pump is replaced by a new one with the fuel left plus the liters added, in the station
+     * and in {@link #getGasPumps()}. Waits for the customer pumping at it, if any, to finish;
+     * other pumps keep serving meanwhile. Counters of the pump carry over, and the pump added
+     * to the station still names it, to remove it or take it out of service. For a pump fed
+     * by a tank, the liters go to the tank and the pump is kept.
+     * @param pump    GasPump item, the one added to the station or the one serving now
+     * @param liters  liters added, more than 0
+     * @return the restocked pump now in the station in place of pump
+     */
+    public GasPump restock(GasPump pump, double liters) {
+        if (!(liters > 0)) {
+            throw new IllegalArgumentException("Invalid liters: "+liters);
+        }
+        PumpSlot slot = findSlot(pump);
+        if (slot == null) {
+            throw new IllegalArgumentException("Gas pump not in the station");
+        }
+        return restock(slot, liters);
+    }
+
+    /**
+     * Add an underground tank feeding all pumps of a gas type, or liters to the tank if
+     * there is one already. Pumps fed by a tank are only nozzles: customers reserve the
+     * fuel they want from the tank with a single compare and set, then fill at any idle
+     * pump of the type, so fills at different pumps run at the same time and none is
+     * short of fuel while the tank is not. The fuel of the pumps themselves is ignored:
+     * events and snapshots report the level of the tank for them. Must be called before
+     * pumps of the gas type are added to the station.
+     * @param type    GasType
+     * @param liters  liters in the tank or added to it, more than 0
+     */
+    public void addTank(GasType type, double liters) {
+        if (!(liters > 0)) {
+            throw new IllegalArgumentException("Invalid liters: "+liters);
+        }
+        FuelTank tank;
+        this.setupLock.lock();
+        try {
+            tank = this.tanks.get(type.ordinal());
+            if (tank != null) {
+                tank.getLedger().restocked(liters);
+            } else if (this.installed.containsKey(type)) {
+                throw new IllegalStateException("Pumps of "+type+" already have their own fuel");
+            } else {
+                tank = new FuelTank(liters, this.stats.newCounter());
+                this.tanks.set(type.ordinal(), tank);
+            }
+            int bank = this.stats.open();
+            tank.getFilled().add(bank, toMicros(liters));
+            this.stats.close(bank);
+        } finally {
+            this.setupLock.unlock();
+        }
+        LOG.info("[TANK] "+type+" added: "+liters+", amount remaining: "+tank.getLedger().getRemaining());
+        raiseMaxRemaining(type, tank.getLedger().getRemaining());
+        wake(type);
+    }
+
+    /**
+     * Get the liters left in the underground tank of a gas type, reserved by customers
+     * or not.
+     * @param type GasType
+     * @return liters left, NaN if the gas type has no tank
+     */
+    public double getTankLevel(GasType type) {
+        FuelTank tank = this.tanks.get(type.ordinal());
+        return tank == null ? Double.NaN : tank.getLedger().getRemaining();
+    }
+
+    /**
+     * Get when pumps are refilled on their own.
+     * @return refill policy, null for never
+     */
+    public RefillPolicy getRefillPolicy() {
+        return this.refillPolicy;
+    }
+
+    /**
+     * Set when pumps are refilled on their own. A pump left with less fuel than the
+     * threshold after a sale is restocked up to the capacity by a background thread, like
+     * {@link #restock(GasPump, double)}. Customers keep the pump objects they were given,
+     * {@link #getGasPumps()} lists the restocked ones. Pumps are not refilled by default.
+     * @param refillPolicy refill policy, null for never
+     */
+    public void setRefillPolicy(RefillPolicy refillPolicy) {
+        this.refillPolicy = refillPolicy;
+    }
+
+    /**
+     * Get how pumps are handed to customers.
+     * @return acquisition mode
+     */
+    public AcquisitionMode getAcquisitionMode() {
+        return this.acquisitionMode;
+    }
+
+    /**
+     * Set how pumps are handed to customers. Defaults to {@link AcquisitionMode#BLOCKING}.
+     * @param acquisitionMode acquisition mode
+     */
+    public void setAcquisitionMode(AcquisitionMode acquisitionMode) {
+        this.acquisitionMode = acquisitionMode;
+    }
+
+    /**
+     * Get the order in which the pumps of a gas type are tried.
+     * @return pump selection strategy
+     */
+    public PumpSelectionStrategy getPumpSelectionStrategy() {
+        return this.selectionStrategy;
+    }
+
+    /**
+     * Set the order in which the pumps of a gas type are tried. Defaults to
+     * {@link PumpSelectionStrategies#firstFit()}, pumps in the order they were added.
+     * @param selectionStrategy pump selection strategy
+     */
+    public void setPumpSelectionStrategy(PumpSelectionStrategy selectionStrategy) {
+        this.selectionStrategy = selectionStrategy;
+    }
+
+    /**
+     * Get the admission limits of a gas type.
+     * @param type GasType
+     * @return admission limits, null if customers are not limited
+     */
+    public AdmissionLimits getAdmissionLimits(GasType type) {
+        return this.admissionLimits.get(type.ordinal());
+    }
+
+    /**
+     * Set the admission limits of a gas type: customers over them are rejected without
+     * waiting on any pump, throwing {@link StationBusyException}. Customers already let in
+     * stay under the limits they were let in with. Not limited by default. Batches are not
+     * subject to admission limits.
+     * @param type    GasType
+     * @param limits  admission limits, null for no limits
+     */
+    public void setAdmissionLimits(GasType type, AdmissionLimits limits) {
+        this.setupLock.lock();
+        try {
+            this.admissionLimits.set(type.ordinal(), limits);
+            this.admission.set(type.ordinal(), limits == null ? null : new AdmissionGate(limits));
+        } finally {
+            this.setupLock.unlock();
+        }
+    }
+
+    /**
+     * Get the time after which a walk-in customer waiting in queued mode is served before
+     * fleet customers.
+     * @return aging time in milliseconds
+     */
+    public long getQueueAgingMillis() {
+        return this.dispatchers[0].getAgingMillis();
+    }
+
+    /**
+     * Set the time after which a walk-in customer waiting in queued mode is served before
+     * fleet customers, for every gas type. Shorter bounds the wait of walk-in customers
+     * more tightly, longer keeps fleets ahead longer. Defaults to 2 seconds.
+     * @param agingMillis aging time in milliseconds, 0 or more
+     */
+    public void setQueueAgingMillis(long agingMillis) {
+        if (agingMillis < 0) {
+            throw new IllegalArgumentException("Invalid aging: "+agingMillis);
+        }
+        for (PumpDispatcher dispatcher : this.dispatchers) {
+            dispatcher.setAgingMillis(agingMillis);
+        }
+    }
+
+    /**
+     * Get statistics of the queue of customers waiting for a pump of a gas type, in queued
+     * mode: depth of the queue, time waited and latency of the sales.
+     * @param type GasType
+     * @return queue statistics
+     */
+    public QueueStats getQueueStats(GasType type) {
+        return this.dispatchers[type.ordinal()].getStats();
+    }
+
+    /**
+     * Get statistics of a priority lane of the queue of a gas type, in queued mode: depth
+     * of the lane, time waited for a pump by its customers and latency of their sales.
+     * @param type      GasType
+     * @param priority  priority class of the lane
+     * @return lane statistics
+     */
+    public QueueStats getQueueStats(GasType type, PurchasePriority priority) {
+        return this.dispatchers[type.ordinal()].getStats(priority);
+    }
+
+    /**
+     * Set the sink receiving the events of the station. By default events go to
+     * {@link #getSharedEventSink()}.
+     * @param eventSink event sink
+     */
+    public void setEventSink(StationEventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    /**
+     * Get the event sink every station uses unless set otherwise. It logs sales from one
+     * background thread, parked while there is nothing to log, so all stations share its
+     * ring and its count of dropped events. Set a sink per station to keep them apart.
+     * @return shared event sink
+     */
+    public static AsyncLoggingEventSink getSharedEventSink() {
+        return SHARED_EVENT_SINK;
+    }
+
+    /**
+     * Tell whether canceled sales throw shared stackless exceptions.
+     * @return true in fast reject mode
+     */
+    public boolean isFastReject() {
+        return this.fastReject;
+    }
+
+    /**
+     * Set whether canceled sales throw shared stackless exceptions instead of creating a new
+     * exception each time. Saves filling in a stack trace per cancellation at high rejection
+     * rates, but the exceptions thrown carry no stack trace. Off by default.
+     * @param fastReject true for fast reject mode
+     */
+    public void setFastReject(boolean fastReject) {
+        this.fastReject = fastReject;
+    }
+
+    /**
+     * Set the executor running asynchronous purchases. By default each gas type has a pool
+     * with one daemon worker per pump of the type.
+     * @param asyncExecutor executor for {@link #buyGasAsync(GasType, double, double)}
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Get the executor set for asynchronous purchases.
+     * @return executor, null for the default executors
+     */
+    Executor getAsyncExecutor() {
+        return this.asyncExecutor;
     }
 
     /**
@@ -81,37 +663,93 @@ public class Station implements GasStation{
      * @return total revenue
      */
     public double getRevenue() {
-        return new Double(this.revenue.doubleValue());
+        return fromMicros(this.revenue.sum());
     }
 
     /**
      * Get total amount of sales performed by the station.
-     * @return total sales
+     * @return total sales, capped at Integer.MAX_VALUE
      */
     public int getNumberOfSales() {
-        return new Integer(this.salesNumber.get());
+        return toInt(getNumberOfSalesLong());
     }
 
     /**
      * Get total amount of operations canceled because of no gas.
-     * @return total canceled because of no gas
+     * @return total canceled because of no gas, capped at Integer.MAX_VALUE
      */
     public int getNumberOfCancellationsNoGas() {
-        return new Integer(this.cancellationNoGas.get());
+        return toInt(getNumberOfCancellationsNoGasLong());
     }
 
     /**
      * Get total amount of operations canceled because of too expensive
-     * @return total canceled because of too expensive
+     * @return total canceled because of too expensive, capped at Integer.MAX_VALUE
      */
     public int getNumberOfCancellationsTooExpensive() {
-        return new Integer(this.cancellationTooExpensive.get());
+        return toInt(getNumberOfCancellationsTooExpensiveLong());
+    }
+
+    /**
+     * Get total amount of operations rejected by admission control.
+     * @return total rejected, capped at Integer.MAX_VALUE
+     */
+    public int getNumberOfCancellationsRejected() {
+        return toInt(getNumberOfCancellationsRejectedLong());
+    }
+
+    /**
+     * Get total amount of operations canceled because no pump was available in time.
+     * @return total timed out, capped at Integer.MAX_VALUE
+     */
+    public int getNumberOfCancellationsTimeout() {
+        return toInt(getNumberOfCancellationsTimeoutLong());
+    }
+
+    /**
+     * Get total amount of sales performed by the station.
+     * @return total sales
+     */
+    public long getNumberOfSalesLong() {
+        return this.salesNumber.sum();
+    }
+
+    /**
+     * Get total amount of operations canceled because of no gas.
+     * @return total canceled because of no gas
+     */
+    public long getNumberOfCancellationsNoGasLong() {
+        return this.cancellationNoGas.sum();
+    }
+
+    /**
+     * Get total amount of operations canceled because of too expensive
+     * @return total canceled because of too expensive
+     */
+    public long getNumberOfCancellationsTooExpensiveLong() {
+        return this.cancellationTooExpensive.sum();
+    }
+
+    /**
+     * Get total amount of operations rejected by admission control.
+     * @return total rejected
+     */
+    public long getNumberOfCancellationsRejectedLong() {
+        return this.cancellationRejected.sum();
+    }
+
+    /**
+     * Get total amount of operations canceled because no pump was available in time.
+     * @return total timed out
+     */
+    public long getNumberOfCancellationsTimeoutLong() {
+        return this.cancellationTimeout.sum();
     }
     
     /**
      * Get price for a given gas type.
      * @param type GasType
-     * @return price
+     * @return price, NaN if no price was set for the gas type
      */
     public double getPrice(GasType type) {
         return this.prices.get(type);
@@ -123,59 +761,1081 @@ public class Station implements GasStation{
      * @param price Price for gas type
      */
     public void setPrice(GasType type, double price) {
-        this.prices.put(type, price);
+        this.prices.set(type, price);
     }
     
     /**
-     * Let a customer buy gas by type, specifying total amount of liters needed and max price per liter to pay.
-     * @param type              GasType
-     * @param amountInLiters    Total liters needed
-     * @param maxPricePerLiter  Max price willing to pay per liter
+     * Get the version of the price for a given gas type. Every sale is charged at the
+     * price version quoted when it started, even if a new price is set meanwhile.
+     * @param type GasType
+     * @return number of times the price was set, 0 if never
+     */
+    public long getPriceVersion(GasType type) {
+        return PriceTable.version(this.prices.stamp(type));
+    }
+    
+    /**
+     * Let a customer buy gas by type, specifying total amount of liters needed and max price per liter to pay.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
      * @return total price for transaction
      * @throws NotEnoughGasException
      * @throws GasTooExpensiveException 
+     * @throws StationBusyException if rejected by admission control, as a NotEnoughGasException
+     * @throws IllegalArgumentException if amountInLiters is not more than 0
      */
     public double buyGas(GasType type, double amountInLiters, double maxPricePerLiter) throws NotEnoughGasException, GasTooExpensiveException {
+        return buyGas(type, amountInLiters, maxPricePerLiter, PurchasePriority.WALK_IN);
+    }
+
+    /**
+     * Let a customer of a priority class buy gas like {@link #buyGas(GasType, double, double)}.
+     * In queued mode the customer waits in the lane of its class and higher classes get the
+     * next pump freed; in other modes every customer competes equally.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @param priority          priority class of the customer
+     * @return total price for transaction
+     * @throws NotEnoughGasException
+     * @throws GasTooExpensiveException 
+     */
+    public double buyGas(GasType type, double amountInLiters, double maxPricePerLiter, PurchasePriority priority)
+            throws NotEnoughGasException, GasTooExpensiveException {
+        PurchaseResult result = new PurchaseResult();
+        purchase(type, amountInLiters, maxPricePerLiter, priority, NO_TIMEOUT, result);
+        return priceOf(result);
+    }
+
+    /**
+     * Let a customer buy gas like {@link #buyGas(GasType, double, double)}, reporting a
+     * canceled sale as an outcome code instead of an exception. Nothing is allocated or
+     * thrown for a valid amount, so callers for which cancellations are business as usual
+     * can reuse a single result holder per thread. Counters are updated the same as for
+     * buyGas.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @param result            holder filled with the outcome, price and price version
+     * @return one of the {@link PurchaseOutcome} codes
+     */
+    public int tryBuyGas(GasType type, double amountInLiters, double maxPricePerLiter, PurchaseResult result) {
+        return purchase(type, amountInLiters, maxPricePerLiter, PurchasePriority.WALK_IN, NO_TIMEOUT, result);
+    }
+
+    /**
+     * Let a customer buy gas like {@link #buyGas(GasType, double, double)}, giving up if no
+     * pump is available before the timeout. The timeout bounds the wait for admission and
+     * for a pump: once gas is being pumped the sale completes. Interrupting the customer
+     * while waiting gives up too. A customer giving up holds no pump and no fuel.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @param timeout           max time to wait for a pump
+     * @param unit              unit of the timeout
+     * @return total price for transaction
+     * @throws NotEnoughGasException
+     * @throws GasTooExpensiveException 
+     * @throws TimeoutException if no pump with enough fuel was available in time
+     */
+    public double buyGas(GasType type, double amountInLiters, double maxPricePerLiter, long timeout, TimeUnit unit)
+            throws NotEnoughGasException, GasTooExpensiveException, TimeoutException {
+        PurchaseResult result = new PurchaseResult();
+        if (tryBuyGas(type, amountInLiters, maxPricePerLiter, timeout, unit, result) == PurchaseOutcome.TIMEOUT) {
+            throw new TimeoutException("No pump available in "+timeout+" "+unit);
+        }
+        return priceOf(result);
+    }
+
+    /**
+     * Let a customer buy gas like {@link #buyGas(GasType, double, double, long, TimeUnit)},
+     * reporting a canceled sale as an outcome code instead of an exception.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @param timeout           max time to wait for a pump
+     * @param unit              unit of the timeout
+     * @param result            holder filled with the outcome, price and price version
+     * @return one of the {@link PurchaseOutcome} codes
+     */
+    public int tryBuyGas(GasType type, double amountInLiters, double maxPricePerLiter, long timeout, TimeUnit unit, PurchaseResult result) {
+        return tryBuyGas(type, amountInLiters, maxPricePerLiter, PurchasePriority.WALK_IN, timeout, unit, result);
+    }
 
-            double pricePerLiter = prices.get(type);
+    /**
+     * Let a customer of a priority class buy gas like
+     * {@link #tryBuyGas(GasType, double, double, long, TimeUnit, PurchaseResult)}.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @param priority          priority class of the customer
+     * @param timeout           max time to wait for a pump
+     * @param unit              unit of the timeout
+     * @param result            holder filled with the outcome, price and price version
+     * @return one of the {@link PurchaseOutcome} codes
+     */
+    public int tryBuyGas(GasType type, double amountInLiters, double maxPricePerLiter, PurchasePriority priority,
+            long timeout, TimeUnit unit, PurchaseResult result) {
+        return purchase(type, amountInLiters, maxPricePerLiter, priority, unit.toNanos(Math.max(0, timeout)), result);
+    }
+
+    /**
+     * Get the price of a purchase, throwing the exception of a canceled purchase.
+     * @param result result of the purchase
+     * @return total price for transaction
+     * @throws NotEnoughGasException
+     * @throws GasTooExpensiveException 
+     */
+    private double priceOf(PurchaseResult result) throws NotEnoughGasException, GasTooExpensiveException {
+        switch (result.getOutcome()) {
+            case PurchaseOutcome.TOO_EXPENSIVE:
+                throw fastReject ? TOO_EXPENSIVE : new GasTooExpensiveException();
+            case PurchaseOutcome.NO_GAS:
+                throw fastReject ? NOT_ENOUGH_GAS : new NotEnoughGasException();
+            case PurchaseOutcome.REJECTED:
+                throw fastReject ? BUSY : new StationBusyException();
+            default:
+                return result.getPrice();
+        }
+    }
+
+    /**
+     * Sell gas to a customer, the common path of every single purchase.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @param priority          priority class of the customer
+     * @param timeoutNanos      max time to wait for a pump in nanoseconds, or NO_TIMEOUT
+     * @param result            holder filled with the outcome, price and price version
+     * @return one of the {@link PurchaseOutcome} codes
+     * @throws IllegalArgumentException if amountInLiters is not more than 0
+     */
+    private int purchase(GasType type, double amountInLiters, double maxPricePerLiter, PurchasePriority priority,
+            long timeoutNanos, PurchaseResult result) {
+            //NaN or no liters would slip past every fuel check below
+            if (!(amountInLiters > 0)) {
+                throw new IllegalArgumentException("Invalid liters: "+amountInLiters);
+            }
+            boolean timed = timeoutNanos != NO_TIMEOUT;
+            long deadline = timed ? System.nanoTime() + timeoutNanos : 0;
+
+            //Quote the price once: the whole sale is charged at this price version, whatever
+            //price is set meanwhile
+            long priceStamp;
+            double pricePerLiter;
+            do {
+                priceStamp = prices.stamp(type);
+                pricePerLiter = prices.peek(type);
+            } while (!prices.validate(type, priceStamp));
+            long priceVersion = PriceTable.version(priceStamp);
             double price = 0;
 
-            //Validate price per liter. If the current price is higher than maxPricePerLiter param, throw exception
-            if (pricePerLiter > maxPricePerLiter) {
-                cancellationTooExpensive.addAndGet(1);
-                throw new GasTooExpensiveException();
-            }
-
-            //Iterate through pumps
-            for (GasPump pump : pumps){
-                //This pump serves the gas type requested
-                if (pump.getGasType().equals(type)) {
-                    //Lock it while using so no other Thread has access
-                    synchronized(pump){
-                        //This pump has enough fuel to serve
-                        if (pump.getRemainingAmount() >= amountInLiters) {
-                                pump.pumpGas(amountInLiters);
-                                price = amountInLiters * pricePerLiter;
-                                LOG.info("[PUMP STATISTICS] amount remaining: "+pump.getRemainingAmount());
-                                revenue.addAndGet(new Double(price).longValue());
-                                salesNumber.addAndGet(1);
-                                break;
+            //Validate price per liter. If the current price is higher than maxPricePerLiter param, cancel.
+            //Gas without a price (NaN) is not sold at any price
+            if (!(pricePerLiter <= maxPricePerLiter)) {
+                count(cancellationTooExpensive);
+                return result.set(PurchaseOutcome.TOO_EXPENSIVE, 0, priceVersion);
+            }
+
+            //Get hold of a pump serving the gas type requested with enough fuel, if any.
+            //No need to look if even the fullest pump of the type cannot serve
+            PumpSlot[] candidates = !(amountInLiters <= getMaxRemaining(type)) ? null : pumpsByType.get(type);
+            AcquisitionMode mode = acquisitionMode;
+            AdmissionGate gate = candidates == null ? null : admission.get(type.ordinal());
+            long admitted = 0;
+            if (gate != null) {
+                //Shed load before waiting on any pump
+                if (!gate.enter(timed, deadline)) {
+                    if (timedOut(timed, deadline) && canServe(type, candidates, amountInLiters)) {
+                        count(cancellationTimeout);
+                        return result.set(PurchaseOutcome.TIMEOUT, 0, priceVersion);
+                    }
+                    count(cancellationRejected);
+                    return result.set(PurchaseOutcome.REJECTED, 0, priceVersion);
+                }
+                admitted = System.nanoTime();
+            }
+            PumpSlot slot = null;
+            double remaining = 0;
+            long queuedAt = 0;
+            try {
+                if (candidates != null) {
+                    switch (mode) {
+                        case NON_BLOCKING:
+                            slot = acquireIdle(type, candidates, amountInLiters, timed, deadline);
+                            break;
+                        case QUEUED:
+                            queuedAt = System.nanoTime();
+                            slot = acquireQueued(type, candidates, amountInLiters, priority, timed, deadline);
+                            break;
+                        default:
+                            slot = acquireFirst(type, candidates, amountInLiters, timed, deadline);
+                    }
+                }
+                if (slot != null) {
+                    //Only the pumping itself is exclusive to the pump, the event is sent once it is free again
+                    GasPump pump = slot.getPump();
+                    try {
+                        pump.pumpGas(amountInLiters);
+                        remaining = pump.getRemainingAmount();
+                    } finally {
+                        slot.getLock().unlock();
+                        slot.getLedger().dispensed(amountInLiters);
+                        if (mode == AcquisitionMode.QUEUED) {
+                            releaseQueued(type, slot, priority, System.nanoTime() - queuedAt);
                         }
                     }
+                    if (slot.isTankFed()) {
+                        //The fuel left is in the tank, the pump only measured the fill
+                        remaining = slot.getLedger().getRemaining();
+                    }
+                }
+            } finally {
+                if (gate != null) {
+                    gate.exit(System.nanoTime() - admitted);
                 }
             }
+            if (slot != null) {
+                price = amountInLiters * pricePerLiter;
+                eventSink.sale(type, amountInLiters, remaining, price, priceVersion);
+                long liters = toMicros(amountInLiters);
+                int bank = stats.open();
+                revenue.add(bank, toMicros(price));
+                salesNumber.add(bank, 1);
+                volumes[type.ordinal()].add(bank, liters);
+                slot.getDispensed().add(bank, liters);
+                stats.close(bank);
+                refreshMaxRemaining(type);
+                refillIfLow(slot);
+            }
 
             //We finalized iterating through every available pump and we know the client has enough money
-            //If by the time we get here price is still 0 means no pump was available to attend it
+            //If by the time we get here no pump was found means no pump was available to attend it
             //either because it/them did not have enough fuel or that there is no pump for that
-            //kind of fuel within the station, either way, throw NotEnoughGasException for the case.
-            //The GasStation interface should include more exceptions for this method
-            if (price == 0 && amountInLiters > 0){
-                cancellationNoGas.addAndGet(1);
-                throw new NotEnoughGasException();        
+            //kind of fuel within the station, either way, cancel with NO_GAS for the case.
+            //Only a customer a pump had fuel for waited in vain for it
+            if (slot == null && candidates != null && timedOut(timed, deadline) && canServe(type, candidates, amountInLiters)) {
+                count(cancellationTimeout);
+                return result.set(PurchaseOutcome.TIMEOUT, 0, priceVersion);
+            }
+            if (slot == null) {
+                count(cancellationNoGas);
+                return result.set(PurchaseOutcome.NO_GAS, 0, priceVersion);
             }
 
-            return price;
+            return result.set(PurchaseOutcome.SOLD, price, priceVersion);
+    }
+    
+
+    /**
+     * Let a customer buy gas without waiting for it to be pumped. The purchase runs on the
+     * asynchronous executor and holds a worker while waiting for a pump, so by default
+     * each gas type has its own workers: orders waiting for a busy pump of one gas type
+     * never delay orders of another.
+     * @param type              GasType
+     * @param amountInLiters    Total liters needed
+     * @param maxPricePerLiter  Max price willing to pay per liter
+     * @return future with the total price for the transaction, completed exceptionally with
+     *         NotEnoughGasException or GasTooExpensiveException if the purchase is canceled,
+     *         with RejectedExecutionException if the executor does not take the purchase, or
+     *         with whatever else the purchase threw
+     */
+    public CompletableFuture<Double> buyGasAsync(final GasType type, final double amountInLiters, final double maxPricePerLiter) {
+        final CompletableFuture<Double> future = new CompletableFuture<Double>();
+        try {
+            getAsyncExecutor(type).execute(() -> {
+                try {
+                    future.complete(buyGas(type, amountInLiters, maxPricePerLiter));
+                } catch (NotEnoughGasException | GasTooExpensiveException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                } catch (Error err) {
+                    //Never leave the caller waiting, the worker still dies of the error
+                    future.completeExceptionally(err);
+                    throw err;
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            //A shut down or saturated executor, the purchase never started
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+    
+    /**
+     * Let a fleet customer buy gas for many orders at once. Orders are grouped by gas type,
+     * the price of each gas type is read once for the whole batch and orders are assigned
+     * to pumps together, each to the first pump with enough fuel in the order of the pump
+     * selection strategy. Every pump then serves
+     * its orders in a row, pumps working in parallel, and the station counters are updated
+     * once for the whole batch. Orders of a gas type are all charged at the same price
+     * version.
+     * @param orders orders of the batch
+     * @return result of each order, in the order of the batch
+     */
+    public List<OrderResult> buyGasBatch(final List<Order> orders) {
+        OrderResult[] results = new OrderResult[orders.size()];
+        Map<GasType, List<Integer>> ordersByType = new EnumMap<GasType, List<Integer>>(GasType.class);
+        for (int i = 0; i < results.length; i++) {
+            GasType type = orders.get(i).getType();
+            List<Integer> sameType = ordersByType.get(type);
+            if (sameType == null) {
+                sameType = new ArrayList<Integer>();
+                ordersByType.put(type, sameType);
+            }
+            sameType.add(i);
+        }
+
+        //Assign every order to a pump, reserving its fuel
+        Map<GasType, PumpSlot[]> index = this.pumpsByType;
+        Map<PumpSlot, List<Integer>> assignments = new IdentityHashMap<PumpSlot, List<Integer>>();
+        Map<PumpSlot, Double> loads = new IdentityHashMap<PumpSlot, Double>();
+        int sales = 0;
+        int noGas = 0;
+        int tooExpensive = 0;
+        long batchRevenue = 0;
+        for (Map.Entry<GasType, List<Integer>> sameType : ordersByType.entrySet()) {
+            GasType type = sameType.getKey();
+            long priceStamp;
+            double pricePerLiter;
+            do {
+                priceStamp = prices.stamp(type);
+                pricePerLiter = prices.peek(type);
+            } while (!prices.validate(type, priceStamp));
+            long priceVersion = PriceTable.version(priceStamp);
+            PumpSlot[] candidates = index.get(type);
+            for (int i : sameType.getValue()) {
+                Order order = orders.get(i);
+                if (!(pricePerLiter <= order.getMaxPricePerLiter())) {
+                    tooExpensive++;
+                    results[i] = new OrderResult(order, PurchaseOutcome.TOO_EXPENSIVE, 0, priceVersion);
+                    continue;
+                }
+                PumpSlot assigned = null;
+                if (candidates != null && order.getAmountInLiters() <= getMaxRemaining(type)) {
+                    int[] selection = selectionOrder(candidates.length);
+                    int count = selectionStrategy.order(type, candidates, order.getAmountInLiters(), selection);
+                    FuelTank tank = tanks.get(type.ordinal());
+                    if (tank == null) {
+                        for (int j = 0; j < count; j++) {
+                            PumpSlot slot = candidates[selection[j]];
+                            if (slot.getLedger().tryReserve(order.getAmountInLiters())) {
+                                assigned = slot;
+                                break;
+                            }
+                        }
+                    } else if (count > 0 && tank.getLedger().tryReserve(order.getAmountInLiters())) {
+                        //Every pump serves from the tank, spread the orders over them
+                        for (int j = 0; j < count; j++) {
+                            PumpSlot slot = candidates[selection[j]];
+                            if (assigned == null || load(loads, slot) < load(loads, assigned)) {
+                                assigned = slot;
+                            }
+                        }
+                    }
+                }
+                //Only an order assigned to a pump is sold
+                if (assigned == null) {
+                    noGas++;
+                    results[i] = new OrderResult(order, PurchaseOutcome.NO_GAS, 0, priceVersion);
+                    continue;
+                }
+                List<Integer> assignedOrders = assignments.get(assigned);
+                if (assignedOrders == null) {
+                    assignedOrders = new ArrayList<Integer>();
+                    assignments.put(assigned, assignedOrders);
+                }
+                assignedOrders.add(i);
+                loads.put(assigned, load(loads, assigned) + order.getAmountInLiters());
+                double price = order.getAmountInLiters() * pricePerLiter;
+                sales++;
+                batchRevenue += toMicros(price);
+                results[i] = new OrderResult(order, PurchaseOutcome.SOLD, price, priceVersion);
+            }
+        }
+
+        //Pump every assignment, the caller serves one pump while workers serve the others
+        Map<PumpSlot, CompletableFuture<Double>> fills = new IdentityHashMap<PumpSlot, CompletableFuture<Double>>();
+        Map.Entry<PumpSlot, List<Integer>> callerFill = null;
+        for (final Map.Entry<PumpSlot, List<Integer>> fill : assignments.entrySet()) {
+            if (callerFill == null) {
+                callerFill = fill;
+            } else {
+                fills.put(fill.getKey(), CompletableFuture.supplyAsync(() -> dispense(fill.getKey(), fill.getValue(), orders),
+                        getAsyncExecutor(fill.getKey().getPump().getGasType())));
+            }
+        }
+        if (callerFill != null) {
+            fills.put(callerFill.getKey(), CompletableFuture.completedFuture(dispense(callerFill.getKey(), callerFill.getValue(), orders)));
+        }
+
+        //Wait for every fill before counting, so a snapshot never waits for pumping
+        Map<PumpSlot, Double> remainingAmounts = new IdentityHashMap<PumpSlot, Double>();
+        for (Map.Entry<PumpSlot, CompletableFuture<Double>> fill : fills.entrySet()) {
+            remainingAmounts.put(fill.getKey(), fill.getValue().join());
+        }
+        int bank = stats.open();
+        revenue.add(bank, batchRevenue);
+        salesNumber.add(bank, sales);
+        cancellationNoGas.add(bank, noGas);
+        cancellationTooExpensive.add(bank, tooExpensive);
+        for (Map.Entry<PumpSlot, List<Integer>> fill : assignments.entrySet()) {
+            long liters = 0;
+            for (int i : fill.getValue()) {
+                liters += toMicros(orders.get(i).getAmountInLiters());
+            }
+            volumes[fill.getKey().getPump().getGasType().ordinal()].add(bank, liters);
+            fill.getKey().getDispensed().add(bank, liters);
+        }
+        stats.close(bank);
+        StationEventSink sink = this.eventSink;
+        for (Map.Entry<PumpSlot, List<Integer>> fill : assignments.entrySet()) {
+            double remaining = remainingAmounts.get(fill.getKey());
+            for (int i : fill.getValue()) {
+                Order order = orders.get(i);
+                sink.sale(order.getType(), order.getAmountInLiters(), remaining, results[i].getPrice(), results[i].getPriceVersion());
+            }
+        }
+        for (GasType type : ordersByType.keySet()) {
+            refreshMaxRemaining(type);
+        }
+        for (PumpSlot slot : assignments.keySet()) {
+            refillIfLow(slot);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Take a snapshot of every counter of the station, liters sold by gas type and liters
+     * left in each pump, all at the same point in time. Sales going on are not held up:
+     * the snapshot only waits for the few counter updates in progress.
+     * @return statistics of the station
+     */
+    public StationStats snapshot() {
+        Map<GasType, PumpSlot[]> index = this.installed;
+        long sequence = this.stats.beginCut();
+        try {
+            EnumMap<GasType, Double> volumesByType = new EnumMap<GasType, Double>(GasType.class);
+            for (GasType type : GasType.values()) {
+                volumesByType.put(type, fromMicros(this.volumes[type.ordinal()].getCut()));
+            }
+            //Every liter of a gas type with a tank was sold from the tank
+            EnumMap<GasType, Double> tankLevels = new EnumMap<GasType, Double>(GasType.class);
+            for (GasType type : GasType.values()) {
+                FuelTank tank = this.tanks.get(type.ordinal());
+                if (tank != null) {
+                    tankLevels.put(type, fromMicros(tank.getFilled().getCut() - this.volumes[type.ordinal()].getCut()));
+                }
+            }
+            Map<GasPump, Double> remainingAmounts = new LinkedHashMap<GasPump, Double>();
+            for (Map.Entry<GasType, PumpSlot[]> slots : index.entrySet()) {
+                for (PumpSlot slot : slots.getValue()) {
+                    remainingAmounts.put(slot.getPump(), slot.isTankFed() ? tankLevels.get(slots.getKey()) : slot.getInitialAmount()
+                            + fromMicros(slot.getRestocked().getCut()) - fromMicros(slot.getDispensed().getCut()));
+                }
+            }
+            return new StationStats(sequence, fromMicros(this.revenue.getCut()), this.salesNumber.getCut(),
+                    this.cancellationNoGas.getCut(), this.cancellationTooExpensive.getCut(), this.cancellationRejected.getCut(),
+                    this.cancellationTimeout.getCut(), volumesByType, remainingAmounts, tankLevels);
+        } finally {
+            this.stats.endCut();
+        }
+    }
+
+    /**
+     * Get the upper bound of the liters left in any single pump of a gas type.
+     * @param type GasType
+     * @return max liters a single pump may have
+     */
+    private double getMaxRemaining(GasType type) {
+        return Double.longBitsToDouble(this.maxRemaining.get(type.ordinal()));
+    }
+
+    /**
+     * Raise the bound of a gas type because one of its pumps got fuel.
+     * @param type   GasType
+     * @param liters liters left in the pump
+     */
+    private void raiseMaxRemaining(GasType type, double liters) {
+        ReentrantLock lock = this.maxRemainingLocks[type.ordinal()];
+        lock.lock();
+        try {
+            if (liters > getMaxRemaining(type)) {
+                this.maxRemaining.set(type.ordinal(), Double.doubleToRawLongBits(liters));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lower the bound of a gas type to the fuel left in its fullest pump, after a sale.
+     * Skipped if the bound is being refreshed or raised already, leaving it high.
+     * @param type GasType
+     */
+    private void refreshMaxRemaining(GasType type) {
+        ReentrantLock lock = this.maxRemainingLocks[type.ordinal()];
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            //Pumps are read under the lock: a pump added meanwhile raises the bound after
+            double max = 0;
+            PumpSlot[] slots = this.pumpsByType.get(type);
+            if (slots != null) {
+                for (PumpSlot slot : slots) {
+                    max = Math.max(max, slot.getLedger().getRemaining());
+                }
+            }
+            this.maxRemaining.set(type.ordinal(), Double.doubleToRawLongBits(max));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Create locks.
+     * @param size number of locks
+     * @return locks
+     */
+    private static ReentrantLock[] newLocks(int size) {
+        ReentrantLock[] locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    /**
+     * Tell whether a purchase with a timeout has to give up: its deadline passed or the
+     * customer was interrupted.
+     * @param timed     whether the purchase has a timeout
+     * @param deadline  when to give up, as System.nanoTime()
+     * @return true if the purchase has to give up
+     */
+    private static boolean timedOut(boolean timed, long deadline) {
+        return timed && (deadline - System.nanoTime() <= 0 || Thread.currentThread().isInterrupted());
+    }
+
+    /**
+     * Create pump dispatchers.
+     * @param size number of dispatchers
+     * @return dispatchers
+     */
+    private static PumpDispatcher[] newDispatchers(int size) {
+        PumpDispatcher[] dispatchers = new PumpDispatcher[size];
+        for (int i = 0; i < size; i++) {
+            dispatchers[i] = new PumpDispatcher(QUEUE_CAPACITY, QUEUE_MAX_OVERTAKES, QUEUE_AGING_MILLIS);
+        }
+        return dispatchers;
+    }
+
+    /**
+     * Create station counters.
+     * @param size number of counters
+     * @return counters
+     */
+    private StatsEpoch.Counter[] newCounters(int size) {
+        StatsEpoch.Counter[] counters = new StatsEpoch.Counter[size];
+        for (int i = 0; i < size; i++) {
+            counters[i] = this.stats.newCounter();
+        }
+        return counters;
+    }
+
+    /**
+     * Count one more on a station counter.
+     * @param counter counter
+     */
+    private void count(StatsEpoch.Counter counter) {
+        int bank = this.stats.open();
+        counter.add(bank, 1);
+        this.stats.close(bank);
+    }
+
+    /**
+     * Narrow a counter to an int for the GasStation getters, capping instead of overflowing.
+     * @param count counter value
+     * @return count, or Integer.MAX_VALUE if larger
+     */
+    private static int toInt(long count) {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Convert an amount of money or liters to millionths, rounding to the nearest.
+     * @param amount amount of money or liters
+     * @return amount in millionths
+     */
+    private static long toMicros(double amount) {
+        return Math.round(amount * MICROS_PER_UNIT);
+    }
+
+    /**
+     * Convert millionths back to an amount of money or liters.
+     * @param micros amount in millionths
+     * @return amount of money or liters
+     */
+    private static double fromMicros(long micros) {
+        return (double) micros / MICROS_PER_UNIT;
+    }
+
+    /**
+     * Pump the fuel reserved for several orders on a pump, holding it once for all of them.
+     * @param slot            pump holding the reservations
+     * @param assignedOrders  indexes of the orders assigned to the pump
+     * @param orders          orders of the batch
+     * @return liters left in the pump
+     */
+    private double dispense(PumpSlot slot, List<Integer> assignedOrders, List<Order> orders) {
+        double total = 0;
+        double remaining;
+        slot.getLock().lock();
+        try {
+            GasPump pump = slot.getPump();
+            for (int i : assignedOrders) {
+                double amountInLiters = orders.get(i).getAmountInLiters();
+                pump.pumpGas(amountInLiters);
+                total += amountInLiters;
+            }
+            remaining = pump.getRemainingAmount();
+        } finally {
+            slot.getLock().unlock();
+            slot.getLedger().dispensed(total);
+        }
+        //The fuel left is in the tank, the pump only measured the fills
+        return slot.isTankFed() ? slot.getLedger().getRemaining() : remaining;
+    }
+
+    /**
+     * Get the liters of a batch assigned to a pump so far.
+     * @param loads  liters assigned to each pump
+     * @param slot   pump
+     * @return liters assigned, 0 if none
+     */
+    private static double load(Map<PumpSlot, Double> loads, PumpSlot slot) {
+        Double liters = loads.get(slot);
+        return liters == null ? 0 : liters;
+    }
+
+    /**
+     * Get the executor running asynchronous purchases of a gas type, creating the default
+     * one if needed.
+     * @param type GasType
+     * @return executor
+     */
+    private Executor getAsyncExecutor(GasType type) {
+        Executor executor = this.asyncExecutor;
+        if (executor != null) {
+            return executor;
+        }
+        executor = this.defaultAsyncExecutors.get(type.ordinal());
+        if (executor != null) {
+            return executor;
+        }
+        this.setupLock.lock();
+        try {
+            ThreadPoolExecutor defaultExecutor = this.defaultAsyncExecutors.get(type.ordinal());
+            if (defaultExecutor == null) {
+                PumpSlot[] slots = this.installed.get(type);
+                int workers = slots == null ? 1 : slots.length;
+                final String prefix = "station-async-"+type.name().toLowerCase()+"-";
+                final AtomicInteger threadNumber = new AtomicInteger(0);
+                ThreadFactory threadFactory = (Runnable task) -> {
+                    Thread thread = new Thread(task, prefix+threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+                defaultExecutor = new ThreadPoolExecutor(workers, workers, ASYNC_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), threadFactory);
+                defaultExecutor.allowCoreThreadTimeOut(true);
+                this.defaultAsyncExecutors.set(type.ordinal(), defaultExecutor);
+            }
+            return defaultExecutor;
+        } finally {
+            this.setupLock.unlock();
+        }
+    }
+
+    /**
+     * Create an executor starting a virtual thread per task, if the runtime supports them.
+     * Looked up reflectively as the station is built for older runtimes.
+     * @return executor or null if virtual threads are not supported
+     */
+    private static Executor newVirtualThreadPerTaskExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Restock a pump. Holds the pump only, while the pump and the pump list are updated.
+     * @param slot    pump
+     * @param liters  liters added
+     * @return the restocked pump
+     */
+    private GasPump restock(PumpSlot slot, double liters) {
+        GasPump restocked;
+        slot.getLock().lock();
+        try {
+            GasPump current = slot.getPump();
+            //A pump fed by a tank only measures fills, its own fuel is meaningless
+            restocked = slot.isTankFed() ? current : new GasPump(current.getGasType(), current.getRemainingAmount() + liters);
+            this.setupLock.lock();
+            try {
+                slot.restock(restocked, liters);
+                int bank = this.stats.open();
+                slot.getRestocked().add(bank, toMicros(liters));
+                this.stats.close(bank);
+                raiseMaxRemaining(restocked.getGasType(), slot.getLedger().getRemaining());
+                //Listed last, so whoever sees the restocked pump can buy its fuel
+                int index = this.pumps.indexOf(current);
+                if (index >= 0) {
+                    this.pumps.set(index, restocked);
+                }
+            } finally {
+                this.setupLock.unlock();
+            }
+        } finally {
+            slot.getLock().unlock();
+        }
+        LOG.info("[RESTOCK] "+restocked.getGasType()+" added: "+liters+", amount remaining: "+slot.getLedger().getRemaining());
+        wake(restocked.getGasType());
+        return restocked;
+    }
+
+    /**
+     * Schedule a refill of a pump if the refill policy asks for it and none is scheduled.
+     * @param slot pump that just dispensed fuel
+     */
+    private void refillIfLow(final PumpSlot slot) {
+        final RefillPolicy policy = this.refillPolicy;
+        if (policy == null || slot.getLedger().getRemaining() >= policy.getThresholdLiters() || !slot.scheduleRefill()) {
+            return;
+        }
+        getRefillExecutor().execute(() -> {
+            try {
+                double liters = policy.getCapacityLiters() - slot.getLedger().getRemaining();
+                if (liters > 0) {
+                    restock(slot, liters);
+                }
+            } finally {
+                slot.refillDone();
+            }
+        });
+    }
+
+    /**
+     * Get the executor refilling pumps, creating it if needed: a single daemon worker.
+     * @return executor
+     */
+    private Executor getRefillExecutor() {
+        this.setupLock.lock();
+        try {
+            if (this.refillExecutor == null) {
+                ThreadFactory threadFactory = (Runnable task) -> {
+                    Thread thread = new Thread(task, "station-refill");
+                    thread.setDaemon(true);
+                    return thread;
+                };
+                this.refillExecutor = new ThreadPoolExecutor(1, 1, ASYNC_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), threadFactory);
+                this.refillExecutor.allowCoreThreadTimeOut(true);
+            }
+            return this.refillExecutor;
+        } finally {
+            this.setupLock.unlock();
+        }
+    }
+
+    /**
+     * Find the slot of a pump of the station, by the pump it serves or the one it was
+     * added with.
+     * @param pump GasPump item
+     * @return slot or null if the pump is not in the station
+     */
+    private PumpSlot findSlot(GasPump pump) {
+        PumpSlot[] slots = this.installed.get(pump.getGasType());
+        if (slots != null) {
+            for (PumpSlot slot : slots) {
+                if (slot.isPump(pump)) {
+                    return slot;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Publish a new index of the pumps in service of a gas type. Called holding the setup lock.
+     * @param type GasType
+     */
+    private void reindex(GasType type) {
+        List<PumpSlot> inService = new ArrayList<PumpSlot>();
+        PumpSlot[] slots = this.installed.get(type);
+        if (slots != null) {
+            for (PumpSlot slot : slots) {
+                if (!slot.isOutOfService()) {
+                    inService.add(slot);
+                }
+            }
+        }
+        Map<GasType, PumpSlot[]> index = new EnumMap<GasType, PumpSlot[]>(this.pumpsByType);
+        if (inService.isEmpty()) {
+            index.remove(type);
+        } else {
+            index.put(type, inService.toArray(new PumpSlot[inService.size()]));
+        }
+        this.pumpsByType = index;
+    }
+
+    /**
+     * Get the pumps in service of a gas type.
+     * @param type GasType
+     * @return pumps in service, empty if none
+     */
+    private PumpSlot[] inService(GasType type) {
+        PumpSlot[] slots = this.pumpsByType.get(type);
+        return slots == null ? new PumpSlot[0] : slots;
+    }
+
+    /**
+     * Hand the idle pumps in service of a gas type to customers waiting in queued mode.
+     * @param type GasType
+     */
+    private void wake(GasType type) {
+        PumpSlot[] candidates = inService(type);
+        this.dispatchers[type.ordinal()].wake(type, candidates, this.selectionStrategy, selectionOrder(candidates.length));
+    }
+
+    /**
+     * Get the array of the current thread where the selection strategy orders pumps.
+     * @param size number of pumps to order
+     * @return array at least as long as size
+     */
+    private int[] selectionOrder(int size) {
+        int[] order = this.selectionOrder.get();
+        if (order == null || order.length < size) {
+            order = new int[size];
+            this.selectionOrder.set(order);
+        }
+        return order;
+    }
+
+    /**
+     * Reserve fuel on the first pump with enough of it, in the order of the selection
+     * strategy, and lock that pump, waiting while it is busy. Checking and reserving
+     * capacity never waits on a pump.
+     * @param type            GasType requested
+     * @param candidates      pumps serving the gas type requested
+     * @param amountInLiters  Total liters needed
+     * @param timed           whether to give up at the deadline
+     * @param deadline        when to give up, as System.nanoTime()
+     * @return the locked pump holding the reservation, or null if no pump has enough fuel
+     *         or it was not available in time
+     */
+    private PumpSlot acquireFirst(GasType type, PumpSlot[] candidates, double amountInLiters, boolean timed, long deadline) {
+        int[] order = selectionOrder(candidates.length);
+        int count = this.selectionStrategy.order(type, candidates, amountInLiters, order);
+        FuelTank tank = this.tanks.get(type.ordinal());
+        if (tank != null) {
+            if (count == 0 || !tank.getLedger().tryReserve(amountInLiters)) {
+                return null;
+            }
+            //Every pump serves from the tank, take an idle one or wait at the shortest queue
+            PumpSlot shortest = null;
+            for (int i = 0; i < count; i++) {
+                PumpSlot slot = candidates[order[i]];
+                if (tryLockIdle(slot.getLock())) {
+                    return slot;
+                }
+                if (shortest == null || slot.getQueueLength() < shortest.getQueueLength()) {
+                    shortest = slot;
+                }
+            }
+            return lockReserved(shortest, amountInLiters, timed, deadline);
+        }
+        for (int i = 0; i < count; i++) {
+            PumpSlot slot = candidates[order[i]];
+            //This pump has enough fuel to serve
+            if (slot.getLedger().tryReserve(amountInLiters)) {
+                return lockReserved(slot, amountInLiters, timed, deadline);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tell whether a pump of a gas type has fuel for an amount not reserved by other
+     * customers, so a customer given up at the deadline timed out rather than found no gas.
+     * @param type            GasType requested
+     * @param candidates      pumps serving the gas type requested
+     * @param amountInLiters  Total liters needed
+     * @return true if a pump could serve the amount
+     */
+    private boolean canServe(GasType type, PumpSlot[] candidates, double amountInLiters) {
+        FuelTank tank = this.tanks.get(type.ordinal());
+        if (tank != null) {
+            return candidates.length > 0 && tank.getLedger().getAvailable() >= amountInLiters;
+        }
+        for (PumpSlot slot : candidates) {
+            if (slot.getLedger().getAvailable() >= amountInLiters) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lock a pump holding a reservation, waiting while it is busy. The reservation is
+     * canceled if the pump is not available in time.
+     * @param slot            pump holding the reservation
+     * @param amountInLiters  liters reserved
+     * @param timed           whether to give up at the deadline
+     * @param deadline        when to give up, as System.nanoTime()
+     * @return the locked pump, or null if it was not available in time
+     */
+    private PumpSlot lockReserved(PumpSlot slot, double amountInLiters, boolean timed, long deadline) {
+        if (!timed) {
+            slot.getLock().lock();
+            return slot;
+        }
+        try {
+            if (slot.getLock().tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return slot;
+            }
+        } catch (InterruptedException ex) {
+            //Give up, restore the flag for the caller
+            Thread.currentThread().interrupt();
+        }
+        slot.getLedger().cancel(amountInLiters);
+        return null;
+    }
+
+    /**
+     * Get an idle pump with enough fuel from the dispatcher of the gas type, reserving the
+     * fuel, and lock that pump. Waits in the queue of the gas type if needed.
+     * @param type            GasType requested
+     * @param candidates      pumps serving the gas type requested
+     * @param amountInLiters  Total liters needed
+     * @param priority        priority class of the customer
+     * @param timed           whether to give up at the deadline
+     * @param deadline        when to give up, as System.nanoTime()
+     * @return the locked pump holding the reservation, or null if no pump has enough fuel
+     *         or none was available in time
+     */
+    private PumpSlot acquireQueued(GasType type, PumpSlot[] candidates, double amountInLiters, PurchasePriority priority,
+            boolean timed, long deadline) {
+        PumpSlot slot = this.dispatchers[type.ordinal()].acquire(type, candidates, amountInLiters, priority,
+                this.selectionStrategy, selectionOrder(candidates.length), timed, deadline);
+        if (slot != null && lockReserved(slot, amountInLiters, timed, deadline) == null) {
+            //A batch held the pump past the deadline, hand it to the next customer
+            releaseQueued(type, slot, null, 0);
+            return null;
+        }
+        return slot;
+    }
+
+    /**
+     * Give a pump back to the dispatcher of the gas type, for the next customer waiting.
+     * @param type          GasType of the pump
+     * @param slot          pump
+     * @param served        priority class of the customer whose sale completed, null if unused
+     * @param latencyNanos  time since the customer entered the dispatcher, in nanoseconds
+     */
+    private void releaseQueued(GasType type, PumpSlot slot, PurchasePriority served, long latencyNanos) {
+        PumpSlot[] candidates = inService(type);
+        this.dispatchers[type.ordinal()].release(type, slot, served, latencyNanos, candidates, this.selectionStrategy,
+                selectionOrder(candidates.length));
+    }
+
+    /**
+     * Lock a pump if it is idle, without overtaking customers already waiting for it.
+     * @param lock lock of the pump
+     * @return true if locked
+     */
+    private static boolean tryLockIdle(ReentrantLock lock) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    return lock.tryLock(0, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reserve fuel on an idle pump with enough of it, in the order of the selection
+     * strategy, and lock that pump. Busy pumps are skipped; only when every candidate with
+     * enough fuel is busy the customer reserves on the one with the shortest queue and waits
+     * for it, at most {@link #BUSY_WAIT_MILLIS}, before looking again. Customers looking
+     * again may be overtaken by later ones, so arrival order is not kept.
+     * @param type            GasType requested
+     * @param candidates      pumps serving the gas type requested
+     * @param amountInLiters  Total liters needed
+     * @param timed           whether to give up at the deadline
+     * @param deadline        when to give up, as System.nanoTime()
+     * @return the locked pump holding the reservation, or null if no pump has enough fuel
+     *         or none was available in time
+     */
+    private PumpSlot acquireIdle(GasType type, PumpSlot[] candidates, double amountInLiters, boolean timed, long deadline) {
+        int[] order = selectionOrder(candidates.length);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                PumpSlot shortest = null;
+                int count = this.selectionStrategy.order(type, candidates, amountInLiters, order);
+                for (int i = 0; i < count; i++) {
+                    PumpSlot slot = candidates[order[i]];
+                    FuelLedger ledger = slot.getLedger();
+                    ReentrantLock lock = slot.getLock();
+                    if (ledger.getAvailable() < amountInLiters) {
+                        continue;
+                    }
+                    if (tryLockIdle(lock)) {
+                        if (ledger.tryReserve(amountInLiters)) {
+                            return slot;
+                        }
+                        lock.unlock();
+                    } else if (shortest == null || lock.getQueueLength() < shortest.getLock().getQueueLength()) {
+                        shortest = slot;
+                    }
+                }
+                //Every pump with enough fuel is busy, if any
+                if (shortest == null || (timed && (interrupted || timedOut(true, deadline)))) {
+                    return null;
+                }
+                if (!shortest.getLedger().tryReserve(amountInLiters)) {
+                    continue;
+                }
+                long waitNanos = TimeUnit.MILLISECONDS.toNanos(BUSY_WAIT_MILLIS);
+                if (timed) {
+                    waitNanos = Math.min(waitNanos, deadline - System.nanoTime());
+                }
+                try {
+                    if (shortest.getLock().tryLock(waitNanos, TimeUnit.NANOSECONDS)) {
+                        return shortest;
+                    }
+                } catch (InterruptedException ex) {
+                    //Keep serving the customer unless timed, restore the flag once done
+                    interrupted = true;
+                }
+                shortest.getLedger().cancel(amountInLiters);
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
     
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Receives the events of a station, e.g. to log them. Called on the purchase path once the
+ * pump is released, so implementations should hand events off quickly and never block.
+ * @author gianksp
+ */
+public interface StationEventSink {
+
+    /**
+     * A sale was completed.
+     * @param type            GasType sold
+     * @param amountInLiters  liters sold
+     * @param remaining       liters left in the pump after the sale
+     * @param price           total price of the sale
+     * @param priceVersion    version of the price the sale was charged at
+     */
+    void sale(GasType type, double amountInLiters, double remaining, double price, long priceVersion);
+
+}
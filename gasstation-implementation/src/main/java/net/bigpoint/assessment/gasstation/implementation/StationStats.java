@@ -0,0 +1,194 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import net.bigpoint.assessment.gasstation.GasPump;
+import net.bigpoint.assessment.gasstation.GasType;
+
+/**
+ * Statistics of a station at one point in time. Every value is taken from the same cut, so
+ * for instance revenue always matches the sales that produced it.
+ * @author gianksp
+ */
+public final class StationStats {
+
+    /**
+     * Sequence number of the snapshot, increasing with every snapshot of the station.
+     */
+    private final long sequence;
+
+    /**
+     * Total revenue.
+     */
+    private final double revenue;
+
+    /**
+     * Total sales.
+     */
+    private final long numberOfSales;
+
+    /**
+     * Total transactions canceled because of no gas.
+     */
+    private final long numberOfCancellationsNoGas;
+
+    /**
+     * Total transactions canceled because of too expensive gas.
+     */
+    private final long numberOfCancellationsTooExpensive;
+
+    /**
+     * Total transactions rejected by admission control.
+     */
+    private final long numberOfCancellationsRejected;
+
+    /**
+     * Total transactions canceled because no pump was available in time.
+     */
+    private final long numberOfCancellationsTimeout;
+
+    /**
+     * Liters sold by gas type.
+     */
+    private final Map<GasType, Double> volumes;
+
+    /**
+     * Liters left in each pump.
+     */
+    private final Map<GasPump, Double> remainingAmounts;
+
+    /**
+     * Liters left in the tank of each gas type fed by one.
+     */
+    private final Map<GasType, Double> tankLevels;
+
+    /**
+     * Create a snapshot.
+     * @param sequence                           sequence number of the snapshot
+     * @param revenue                            total revenue
+     * @param numberOfSales                      total sales
+     * @param numberOfCancellationsNoGas         total canceled because of no gas
+     * @param numberOfCancellationsTooExpensive  total canceled because of too expensive
+     * @param numberOfCancellationsRejected      total rejected by admission control
+     * @param numberOfCancellationsTimeout       total canceled because no pump was available in time
+     * @param volumes                            liters sold by gas type
+     * @param remainingAmounts                   liters left in each pump
+     * @param tankLevels                         liters left in the tank of each gas type fed by one
+     */
+    StationStats(long sequence, double revenue, long numberOfSales, long numberOfCancellationsNoGas,
+            long numberOfCancellationsTooExpensive, long numberOfCancellationsRejected,
+            long numberOfCancellationsTimeout, EnumMap<GasType, Double> volumes, Map<GasPump, Double> remainingAmounts,
+            EnumMap<GasType, Double> tankLevels) {
+        this.sequence = sequence;
+        this.revenue = revenue;
+        this.numberOfSales = numberOfSales;
+        this.numberOfCancellationsNoGas = numberOfCancellationsNoGas;
+        this.numberOfCancellationsTooExpensive = numberOfCancellationsTooExpensive;
+        this.numberOfCancellationsRejected = numberOfCancellationsRejected;
+        this.numberOfCancellationsTimeout = numberOfCancellationsTimeout;
+        this.volumes = Collections.unmodifiableMap(volumes);
+        this.remainingAmounts = Collections.unmodifiableMap(remainingAmounts);
+        this.tankLevels = Collections.unmodifiableMap(tankLevels);
+    }
+
+    /**
+     * Get the sequence number of the snapshot.
+     * @return sequence number, increasing with every snapshot of the station
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * Get total revenue.
+     * @return total revenue
+     */
+    public double getRevenue() {
+        return this.revenue;
+    }
+
+    /**
+     * Get total amount of sales.
+     * @return total sales
+     */
+    public long getNumberOfSales() {
+        return this.numberOfSales;
+    }
+
+    /**
+     * Get total amount of operations canceled because of no gas.
+     * @return total canceled because of no gas
+     */
+    public long getNumberOfCancellationsNoGas() {
+        return this.numberOfCancellationsNoGas;
+    }
+
+    /**
+     * Get total amount of operations canceled because of too expensive.
+     * @return total canceled because of too expensive
+     */
+    public long getNumberOfCancellationsTooExpensive() {
+        return this.numberOfCancellationsTooExpensive;
+    }
+
+    /**
+     * Get total amount of operations rejected by admission control.
+     * @return total rejected
+     */
+    public long getNumberOfCancellationsRejected() {
+        return this.numberOfCancellationsRejected;
+    }
+
+    /**
+     * Get total amount of operations canceled because no pump was available in time.
+     * @return total timed out
+     */
+    public long getNumberOfCancellationsTimeout() {
+        return this.numberOfCancellationsTimeout;
+    }
+
+    /**
+     * Get liters sold of a gas type.
+     * @param type GasType
+     * @return liters sold
+     */
+    public double getVolume(GasType type) {
+        Double volume = this.volumes.get(type);
+        return volume == null ? 0 : volume;
+    }
+
+    /**
+     * Get liters sold by gas type.
+     * @return unmodifiable map of liters sold by gas type
+     */
+    public Map<GasType, Double> getVolumes() {
+        return this.volumes;
+    }
+
+    /**
+     * Get liters left in each pump. For a pump fed by a tank, liters left in the tank.
+     * @return unmodifiable map of liters left by pump
+     */
+    public Map<GasPump, Double> getRemainingAmounts() {
+        return this.remainingAmounts;
+    }
+
+    /**
+     * Get liters left in the tank of a gas type.
+     * @param type GasType
+     * @return liters left, NaN if the gas type has no tank
+     */
+    public double getTankLevel(GasType type) {
+        Double level = this.tankLevels.get(type);
+        return level == null ? Double.NaN : level;
+    }
+
+    /**
+     * Get liters left in the tank of each gas type fed by one.
+     * @return unmodifiable map of liters left by gas type
+     */
+    public Map<GasType, Double> getTankLevels() {
+        return this.tankLevels;
+    }
+}
@@ -0,0 +1,189 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Epoch scheme giving a consistent cut of many counters without ever making writers wait.
+ * Every counter has two banks and writers always add to the bank of the current epoch,
+ * between {@link #open()} and {@link #close(int)}. Taking a cut flips the epoch, waits for
+ * the few writers still adding to the old bank, which now holds still, and adds it to what
+ * the new bank held when it was last flipped away from. The cut is the state at the flip.
+ * @author gianksp
+ */
+final class StatsEpoch {
+
+    /**
+     * Longs between two writer cells, so each cell sits on its own cache line.
+     */
+    private static final int CELL_PADDING = 16;
+
+    /**
+     * Writer cells per bank, a power of two at least the number of processors.
+     */
+    private static final int CELLS = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    /**
+     * Bank writers add to.
+     */
+    private volatile int current = 0;
+
+    /**
+     * Writers currently adding to each bank, striped over padded cells so writers on
+     * different processors do not share a cache line. A writer increments and decrements
+     * the same cell, so no cell ever goes below 0 and a cell read as 0 has no writer
+     * inside; a LongAdder sum, read while a writer backs out of a flipped bank, may miss
+     * its increment but see its decrement and read 0 with another writer still inside.
+     */
+    private final AtomicLongArray[] writers = {new AtomicLongArray(CELLS * CELL_PADDING), new AtomicLongArray(CELLS * CELL_PADDING)};
+
+    /**
+     * Every counter of the epoch, all of them are cut together.
+     */
+    private final CopyOnWriteArrayList<Counter> counters = new CopyOnWriteArrayList<Counter>();
+
+    /**
+     * Cuts taken so far.
+     */
+    private long cuts = 0;
+
+    /**
+     * Only one cut at a time.
+     */
+    private final ReentrantLock cutLock = new ReentrantLock();
+
+    /**
+     * Create a counter belonging to this epoch.
+     * @return counter
+     */
+    Counter newCounter() {
+        Counter counter = new Counter();
+        this.counters.add(counter);
+        return counter;
+    }
+
+    /**
+     * Start adding to counters.
+     * @return bank to add to, to be given back to {@link #close(int)}
+     */
+    int open() {
+        while (true) {
+            int bank = this.current;
+            int cell = cell();
+            this.writers[bank].incrementAndGet(cell);
+            if (this.current == bank) {
+                return bank;
+            }
+            //A cut flipped the epoch meanwhile, go to the new bank
+            this.writers[bank].decrementAndGet(cell);
+        }
+    }
+
+    /**
+     * Done adding to counters, on the thread that opened the bank.
+     * @param bank bank returned by {@link #open()}
+     */
+    void close(int bank) {
+        this.writers[bank].decrementAndGet(cell());
+    }
+
+    /**
+     * Start a cut: flip the epoch, wait for writers of the old bank to be done and cut every
+     * counter. Values at the cut are read with {@link Counter#getCut()} until {@link #endCut()}.
+     * @return sequence number of the cut
+     */
+    long beginCut() {
+        this.cutLock.lock();
+        int bank = this.current;
+        this.current = 1 - bank;
+        for (int cell = 0; cell < CELLS * CELL_PADDING; cell += CELL_PADDING) {
+            while (this.writers[bank].get(cell) != 0) {
+                Thread.yield();
+            }
+        }
+        for (Counter counter : this.counters) {
+            counter.cut(bank);
+        }
+        return ++this.cuts;
+    }
+
+    /**
+     * Get the writer cell of the current thread. A writer closes a bank on the thread it
+     * opened it, so it gets the same cell both times.
+     * @return index of the cell in a bank
+     */
+    private static int cell() {
+        return (int) (Thread.currentThread().getId() & (CELLS - 1)) * CELL_PADDING;
+    }
+
+    /**
+     * Finish a cut.
+     */
+    void endCut() {
+        this.cutLock.unlock();
+    }
+
+    /**
+     * A counter with a bank per epoch.
+     */
+    static final class Counter {
+
+        /**
+         * Value added in each bank.
+         */
+        private final LongAdder[] banks = {new LongAdder(), new LongAdder()};
+
+        /**
+         * Value of each bank when the epoch last flipped away from it, guarded by the cut lock.
+         */
+        private final long[] settled = new long[2];
+
+        /**
+         * Value at the last cut, guarded by the cut lock.
+         */
+        private long cutValue;
+
+        /**
+         * Created by {@link StatsEpoch#newCounter()} only.
+         */
+        private Counter() {
+        }
+
+        /**
+         * Add to the counter.
+         * @param bank  bank returned by {@link StatsEpoch#open()}
+         * @param value value to add
+         */
+        void add(int bank, long value) {
+            this.banks[bank].add(value);
+        }
+
+        /**
+         * Get the current value, not consistent with other counters.
+         * @return value
+         */
+        long sum() {
+            return this.banks[0].sum() + this.banks[1].sum();
+        }
+
+        /**
+         * Get the value at the cut in progress.
+         * @return value at the cut
+         */
+        long getCut() {
+            return this.cutValue;
+        }
+
+        /**
+         * Cut the counter once its bank holds still.
+         * @param bank bank the epoch flipped away from
+         */
+        private void cut(int bank) {
+            long value = this.banks[bank].sum();
+            this.settled[bank] = value;
+            this.cutValue = value + this.settled[1 - bank];
+        }
+    }
+}
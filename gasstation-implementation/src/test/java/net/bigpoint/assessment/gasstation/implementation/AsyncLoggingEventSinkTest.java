@@ -0,0 +1,117 @@
+package net.bigpoint.assessment.gasstation.implementation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import net.bigpoint.assessment.gasstation.GasType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for AsyncLoggingEventSink class.
+ * @author gianksp
+ */
+public class AsyncLoggingEventSinkTest {
+
+    /**
+     * Handler keeping the messages logged, optionally held until released.
+     */
+    private static class CollectingHandler extends Handler {
+
+        private final List<String> messages = new CopyOnWriteArrayList<String>();
+        private final CountDownLatch release;
+
+        CollectingHandler(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(record.getMessage());
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Create a logger writing to the handler only.
+     */
+    private static Logger logger(String name, Handler handler) {
+        Logger log = Logger.getLogger(AsyncLoggingEventSinkTest.class.getName()+"."+name);
+        log.setUseParentHandlers(false);
+        log.addHandler(handler);
+        return log;
+    }
+
+    /**
+     * Every event is logged, in order, by the background thread.
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testSale() {
+        CollectingHandler handler = new CollectingHandler(new CountDownLatch(0));
+        AsyncLoggingEventSink sink = new AsyncLoggingEventSink(logger("testSale", handler), 16);
+        for (int i = 0; i < 10; i++) {
+            sink.sale(GasType.REGULAR, i, 100 - i, 0.5 * i, 1);
+        }
+        sink.close();
+        Assert.assertEquals(handler.messages.size(), 10);
+        Assert.assertEquals(handler.messages.get(3), "[PUMP STATISTICS] REGULAR sold: 3.0, amount remaining: 97.0, price: 1.5, price version: 1");
+        Assert.assertEquals(sink.getDropped(), 0);
+    }
+
+    /**
+     * When logging cannot keep up, events are dropped and counted instead of blocking.
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testSaleRingFull() {
+        CountDownLatch release = new CountDownLatch(1);
+        CollectingHandler handler = new CollectingHandler(release);
+        AsyncLoggingEventSink sink = new AsyncLoggingEventSink(logger("testSaleRingFull", handler), 4);
+        for (int i = 0; i < 100; i++) {
+            sink.sale(GasType.DIESEL, 1, 1, 1, 1);
+        }
+        Assert.assertTrue(sink.getDropped() > 0);
+        release.countDown();
+        sink.close();
+        Assert.assertEquals(handler.messages.size() + sink.getDropped(), 100);
+    }
+
+    /**
+     * An idle background thread is parked, not polling, and the next event wakes it.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testIdleParks() throws Exception {
+        CollectingHandler handler = new CollectingHandler(new CountDownLatch(0));
+        AsyncLoggingEventSink sink = new AsyncLoggingEventSink(logger("testIdleParks", handler), 16);
+        Thread.sleep(100);
+        boolean parked = false;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("station-event-log") && thread.getState() == Thread.State.WAITING) {
+                parked = true;
+            }
+        }
+        Assert.assertTrue(parked);
+        sink.sale(GasType.SUPER, 1, 1, 1, 1);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (handler.messages.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(handler.messages.size(), 1);
+        sink.close();
+    }
+}
@@ -4,14 +4,29 @@
  */
 package net.bigpoint.assessment.gasstation.implementation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.bigpoint.assessment.gasstation.GasPump;
 import net.bigpoint.assessment.gasstation.GasType;
 import net.bigpoint.assessment.gasstation.exceptions.GasTooExpensiveException;
 import net.bigpoint.assessment.gasstation.exceptions.NotEnoughGasException;
+import net.bigpoint.assessment.gasstation.exceptions.StationBusyException;
 import org.testng.Assert;
+import org.testng.SkipException;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
@@ -100,6 +115,14 @@ public class StationTest {
         station.addGasPump(pumpSuper1);
         //Take into consideration the 3 added here and the 5 added default
         Assert.assertTrue(station.getGasPumps().size() == 8);
+        //Pumps are only added through the station
+        try {
+            station.getGasPumps().add(new GasPump(GasType.DIESEL, defaultLiters));
+            Assert.fail("Gas pump added behind the station");
+        } catch (UnsupportedOperationException ex) {
+            LOG.info("[testGasPumps] Pump list is read-only");
+        }
+        Assert.assertTrue(station.getGasPumps().size() == 8);
     }
 
     /**
@@ -189,4 +212,1241 @@ public class StationTest {
         }  
         Assert.assertTrue(success);
     }
+
+    /**
+     * In non blocking mode a customer skips a pump busy with a long fill and is served by an
+     * idle pump of the same type instead of waiting for the long fill to finish.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testNonBlockingSkipsBusyPump() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testNonBlockingSkipsBusyPump] Buying gas. Current Thread: "+idThread);
+        final Station nonBlocking = new Station();
+        nonBlocking.setAcquisitionMode(AcquisitionMode.NON_BLOCKING);
+        nonBlocking.setPrice(GasType.SUPER, superPrice);
+        nonBlocking.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        nonBlocking.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        //Keep the first pump busy for 2 seconds
+        Thread longFill = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    nonBlocking.buyGas(GasType.SUPER, 20, 1);
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE,"Long fill failed", ex);
+                }
+            }
+        });
+        longFill.start();
+        Thread.sleep(200);
+        long start = System.currentTimeMillis();
+        nonBlocking.buyGas(GasType.SUPER, 1, 1);
+        long elapsed = System.currentTimeMillis() - start;
+        longFill.join();
+        Assert.assertTrue(elapsed < 1000);
+        Assert.assertEquals(nonBlocking.getNumberOfSales(), 2);
+    }
+
+    /**
+     * Fuel is reserved before pumping, so a customer asking for more than what is left
+     * once a long fill completes is turned away right away instead of waiting for it.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testReservationDuringLongFill() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testReservationDuringLongFill] Buying gas. Current Thread: "+idThread);
+        final Station reserving = new Station();
+        reserving.setPrice(GasType.DIESEL, dieselPrice);
+        reserving.addGasPump(new GasPump(GasType.DIESEL, 10));
+        //Keep the pump busy for 2 seconds, leaving 2 liters
+        Thread longFill = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    reserving.buyGas(GasType.DIESEL, 8, 1);
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE,"Long fill failed", ex);
+                }
+            }
+        });
+        longFill.start();
+        Thread.sleep(200);
+        boolean success = false;
+        long start = System.currentTimeMillis();
+        try {
+            reserving.buyGas(GasType.DIESEL, 5, 1);
+        } catch (NotEnoughGasException ex) {
+            success = true;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        longFill.join();
+        Assert.assertTrue(success);
+        Assert.assertTrue(elapsed < 400);
+        Assert.assertEquals(reserving.getNumberOfSales(), 1);
+    }
+
+    /**
+     * Test of buyGasAsync method, of class Station. Orders are taken at once and completed
+     * as pumps serve them, cancellations complete the future exceptionally.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testBuyGasAsync() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testBuyGasAsync] Buying gas. Current Thread: "+idThread);
+        Station async = new Station();
+        async.setPrice(GasType.REGULAR, regularPrice);
+        async.addGasPump(new GasPump(GasType.REGULAR, minLiters));
+        async.addGasPump(new GasPump(GasType.REGULAR, minLiters));
+        List<CompletableFuture<Double>> orders = new ArrayList<CompletableFuture<Double>>();
+        for (int i = 0; i < 100; i++) {
+            orders.add(async.buyGasAsync(GasType.REGULAR, 0.1, 1));
+        }
+        for (CompletableFuture<Double> order : orders) {
+            Assert.assertEquals(order.get().doubleValue(), 0.1 * regularPrice);
+        }
+        Assert.assertEquals(async.getNumberOfSales(), 100);
+        CompletableFuture<Double> tooMuch = async.buyGasAsync(GasType.REGULAR, 100, 1);
+        CompletableFuture<Double> tooExpensive = async.buyGasAsync(GasType.REGULAR, 1, 0);
+        try {
+            tooMuch.get();
+            Assert.fail("Not enough gas expected");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof NotEnoughGasException);
+        }
+        try {
+            tooExpensive.get();
+            Assert.fail("Gas too expensive expected");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof GasTooExpensiveException);
+        }
+    }
+
+    /**
+     * An order the executor rejects, or a purchase failing with an error, completes the
+     * future exceptionally rather than leaving it pending forever.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testBuyGasAsyncFailures() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testBuyGasAsyncFailures] Buying gas. Current Thread: "+idThread);
+        Station async = new Station();
+        async.setPrice(GasType.REGULAR, regularPrice);
+        async.addGasPump(new GasPump(GasType.REGULAR, minLiters));
+        async.setAsyncExecutor((Runnable task) -> {
+            throw new RejectedExecutionException("Executor shut down");
+        });
+        CompletableFuture<Double> rejected = async.buyGasAsync(GasType.REGULAR, 0.1, 1);
+        try {
+            rejected.get(1, TimeUnit.SECONDS);
+            Assert.fail("Rejection expected");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+
+        //The worker dies of the error once the future is completed
+        async.setAsyncExecutor((Runnable task) -> {
+            Thread worker = new Thread(task);
+            worker.setUncaughtExceptionHandler((Thread thread, Throwable ex) -> LOG.info("[testBuyGasAsyncFailures] Worker died: "+ex));
+            worker.start();
+        });
+        async.setEventSink(new StationEventSink() {
+            public void sale(GasType type, double amountInLiters, double remaining, double price, long priceVersion) {
+                throw new OutOfMemoryError("Sink out of memory");
+            }
+        });
+        CompletableFuture<Double> failed = async.buyGasAsync(GasType.REGULAR, 0.1, 1);
+        try {
+            failed.get(1, TimeUnit.SECONDS);
+            Assert.fail("Error expected");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof OutOfMemoryError);
+        }
+    }
+
+    /**
+     * Test of withVirtualThreads method, of class Station. A hundred thousand customers call
+     * buyGas at once, each on a virtual thread of the station, and all are served with a
+     * bounded heap and without a platform thread per customer. Skipped on runtimes without
+     * virtual threads, before Java 21. Station logging is turned down for the run.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testVirtualThreadsManyCustomers() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testVirtualThreadsManyCustomers] Buying gas. Current Thread: "+idThread);
+        final int customers = 100000;
+        final Station virtual;
+        try {
+            virtual = Station.withVirtualThreads();
+        } catch (UnsupportedOperationException ex) {
+            throw new SkipException(ex.getMessage());
+        }
+        Executor executor = virtual.getAsyncExecutor();
+        //Every purchase runs on a virtual thread
+        final CompletableFuture<Thread> worker = new CompletableFuture<Thread>();
+        executor.execute(() -> worker.complete(Thread.currentThread()));
+        Assert.assertEquals(Thread.class.getMethod("isVirtual").invoke(worker.get()), Boolean.TRUE);
+
+        virtual.setPrice(GasType.DIESEL, dieselPrice);
+        for (int i = 0; i < 16; i++) {
+            virtual.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        }
+        Logger stationLog = Logger.getLogger(Station.class.getName());
+        Level stationLevel = stationLog.getLevel();
+        stationLog.setLevel(Level.WARNING);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        final CountDownLatch waiting = new CountDownLatch(customers);
+        final CountDownLatch go = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(customers);
+        final AtomicInteger failures = new AtomicInteger(0);
+        long heapWaiting;
+        try {
+            for (int i = 0; i < customers; i++) {
+                executor.execute(() -> {
+                    try {
+                        waiting.countDown();
+                        go.await();
+                        //Too little to sleep at the pump, customers only wait for its lock
+                        virtual.buyGas(GasType.DIESEL, 0.0001, 1);
+                    } catch (Exception ex) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            //Every customer is parked on its own virtual thread before any buys
+            Assert.assertTrue(waiting.await(60, TimeUnit.SECONDS));
+            System.gc();
+            heapWaiting = runtime.totalMemory() - runtime.freeMemory();
+            go.countDown();
+            Assert.assertTrue(done.await(120, TimeUnit.SECONDS));
+        } finally {
+            go.countDown();
+            stationLog.setLevel(stationLevel);
+        }
+        LOG.info("[testVirtualThreadsManyCustomers] Heap used by waiting customers: "+(heapWaiting - heapBefore)/(1024*1024)+" MB");
+        Assert.assertEquals(failures.get(), 0);
+        Assert.assertEquals(virtual.getNumberOfSales(), customers);
+        //A few KB per parked customer, and no platform thread per customer
+        Assert.assertTrue(heapWaiting - heapBefore < 512L * 1024 * 1024);
+        Assert.assertTrue(threads.getPeakThreadCount() - threadsBefore < 100);
+    }
+
+    /**
+     * Asynchronous orders of a gas type do not wait behind orders of another gas type
+     * waiting for a busy pump.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testBuyGasAsyncGasTypesIndependent() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testBuyGasAsyncGasTypesIndependent] Buying gas. Current Thread: "+idThread);
+        Station async = new Station();
+        async.setPrice(GasType.DIESEL, dieselPrice);
+        async.setPrice(GasType.SUPER, superPrice);
+        async.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        async.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        List<CompletableFuture<Double>> diesel = new ArrayList<CompletableFuture<Double>>();
+        for (int i = 0; i < 3; i++) {
+            diesel.add(async.buyGasAsync(GasType.DIESEL, 5, 1));
+        }
+        long start = System.currentTimeMillis();
+        async.buyGasAsync(GasType.SUPER, 1, 1).get();
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue(elapsed < 400);
+        for (CompletableFuture<Double> order : diesel) {
+            order.get();
+        }
+        Assert.assertEquals(async.getNumberOfSales(), 4);
+    }
+
+    /**
+     * Test of buyGasBatch method, of class Station. Orders of several gas types are served
+     * at once and each order gets its own result.
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testBuyGasBatch() {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testBuyGasBatch] Buying gas. Current Thread: "+idThread);
+        Station fleet = new Station();
+        fleet.setPrice(GasType.REGULAR, regularPrice);
+        fleet.setPrice(GasType.DIESEL, dieselPrice);
+        fleet.addGasPump(new GasPump(GasType.DIESEL, 1));
+        fleet.addGasPump(new GasPump(GasType.REGULAR, 1));
+        fleet.addGasPump(new GasPump(GasType.DIESEL, 1));
+        List<Order> orders = new ArrayList<Order>();
+        orders.add(new Order(GasType.DIESEL, 0.6, 1));
+        orders.add(new Order(GasType.REGULAR, 0.5, 1));
+        orders.add(new Order(GasType.DIESEL, 0.6, 1));
+        orders.add(new Order(GasType.DIESEL, 0.6, 1));
+        orders.add(new Order(GasType.REGULAR, 0.5, 0.1));
+        List<OrderResult> results = fleet.buyGasBatch(orders);
+        Assert.assertEquals(results.size(), orders.size());
+        Assert.assertEquals(results.get(0).getOutcome(), PurchaseOutcome.SOLD);
+        Assert.assertEquals(results.get(0).getPrice(), 0.6 * dieselPrice);
+        Assert.assertEquals(results.get(1).getOutcome(), PurchaseOutcome.SOLD);
+        Assert.assertEquals(results.get(2).getOutcome(), PurchaseOutcome.SOLD);
+        Assert.assertEquals(results.get(3).getOutcome(), PurchaseOutcome.NO_GAS);
+        Assert.assertEquals(results.get(4).getOutcome(), PurchaseOutcome.TOO_EXPENSIVE);
+        Assert.assertSame(results.get(4).getOrder(), orders.get(4));
+        Assert.assertEquals(fleet.getNumberOfSales(), 3);
+        Assert.assertEquals(fleet.getNumberOfCancellationsNoGas(), 1);
+        Assert.assertEquals(fleet.getNumberOfCancellationsTooExpensive(), 1);
+        Assert.assertEquals(fleet.getNumberOfSalesLong(), 3L);
+        Assert.assertEquals(fleet.getNumberOfCancellationsNoGasLong(), 1L);
+        Assert.assertEquals(fleet.getNumberOfCancellationsTooExpensiveLong(), 1L);
+        //Orders for NaN or no liters cannot even be placed
+        for (double amount : new double[] {Double.NaN, 0, -1}) {
+            try {
+                new Order(GasType.DIESEL, amount, 1);
+                Assert.fail("Amount accepted: "+amount);
+            } catch (IllegalArgumentException ex) {
+                LOG.info("[testBuyGasBatch] "+ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Test of getRevenue method, of class Station. Sales below one currency unit must
+     * still be accounted for, without rounding drift.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testRevenue() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testRevenue] Buying gas. Current Thread: "+idThread);
+        Station accounting = new Station();
+        accounting.setPrice(GasType.REGULAR, regularPrice);
+        accounting.addGasPump(new GasPump(GasType.REGULAR, defaultLiters));
+        for (int i = 0; i < 100; i++) {
+            accounting.buyGas(GasType.REGULAR, 0.01, 1);
+        }
+        List<Order> orders = new ArrayList<Order>();
+        for (int i = 0; i < 100; i++) {
+            orders.add(new Order(GasType.REGULAR, 0.01, 1));
+        }
+        accounting.buyGasBatch(orders);
+        //200 sales of 0.0056 each
+        Assert.assertEquals(accounting.getRevenue(), 1.12);
+    }
+
+    /**
+     * Test of snapshot method, of class Station. While customers keep buying, every snapshot
+     * shows revenue, sales, volume and pump amounts that match each other.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testSnapshot() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testSnapshot] Buying gas. Current Thread: "+idThread);
+        final Station monitored = new Station();
+        monitored.setAcquisitionMode(AcquisitionMode.NON_BLOCKING);
+        monitored.setPrice(GasType.REGULAR, regularPrice);
+        for (int i = 0; i < 4; i++) {
+            monitored.addGasPump(new GasPump(GasType.REGULAR, minLiters));
+        }
+        List<CompletableFuture<Double>> orders = new ArrayList<CompletableFuture<Double>>();
+        for (int i = 0; i < 400; i++) {
+            orders.add(monitored.buyGasAsync(GasType.REGULAR, 0.01, 1));
+        }
+        long lastSequence = 0;
+        boolean done = false;
+        while (!done) {
+            done = orders.get(orders.size() - 1).isDone();
+            StationStats stats = monitored.snapshot();
+            Assert.assertTrue(stats.getSequence() > lastSequence);
+            lastSequence = stats.getSequence();
+            //Every sale is 0.01 liters at the regular price
+            Assert.assertEquals(Math.round(stats.getRevenue() * 1000000), stats.getNumberOfSales() * 5600);
+            Assert.assertEquals(Math.round(stats.getVolume(GasType.REGULAR) * 100), stats.getNumberOfSales());
+            double remaining = 0;
+            for (double amount : stats.getRemainingAmounts().values()) {
+                remaining += amount;
+            }
+            Assert.assertEquals(Math.round((4 * minLiters - remaining) * 100), stats.getNumberOfSales());
+        }
+        for (CompletableFuture<Double> order : orders) {
+            order.get();
+        }
+        Assert.assertEquals(monitored.snapshot().getNumberOfSales(), 400L);
+    }
+
+    /**
+     * A snapshot taken while a batch is pumping does not wait for the batch to finish.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testSnapshotDuringBatch() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testSnapshotDuringBatch] Buying gas. Current Thread: "+idThread);
+        final Station batching = new Station();
+        batching.setPrice(GasType.DIESEL, dieselPrice);
+        batching.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        batching.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        final List<Order> orders = new ArrayList<Order>();
+        orders.add(new Order(GasType.DIESEL, 10, 1));
+        orders.add(new Order(GasType.DIESEL, 10, 1));
+        //Both pumps are busy for a second
+        Thread batch = new Thread(new Runnable() {
+            public void run() {
+                batching.buyGasBatch(orders);
+            }
+        });
+        batch.start();
+        Thread.sleep(200);
+        long start = System.currentTimeMillis();
+        StationStats stats = batching.snapshot();
+        long elapsed = System.currentTimeMillis() - start;
+        batch.join();
+        Assert.assertTrue(elapsed < 500);
+        Assert.assertEquals(stats.getNumberOfSales(), 0L);
+        Assert.assertEquals(batching.snapshot().getNumberOfSales(), 2L);
+    }
+
+    /**
+     * Gas without a price is not sold at any price, and is reported as too expensive.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testPriceNotSet() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testPriceNotSet] Buying gas. Current Thread: "+idThread);
+        Station unpriced = new Station();
+        unpriced.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        Assert.assertTrue(Double.isNaN(unpriced.getPrice(GasType.SUPER)));
+        boolean success = false;
+        try {
+            unpriced.buyGas(GasType.SUPER, 1, Double.MAX_VALUE);
+        } catch (GasTooExpensiveException ex) {
+            success = true;
+        }
+        Assert.assertTrue(success);
+        Assert.assertEquals(unpriced.getNumberOfCancellationsTooExpensive(), 1);
+    }
+
+    /**
+     * Test of getPriceVersion method, of class Station. A sale is charged at the price
+     * version quoted when it started, even if the price changes while gas is pumped.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testPriceVersion() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testPriceVersion] Buying gas. Current Thread: "+idThread);
+        Station versioned = new Station();
+        versioned.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        Assert.assertEquals(versioned.getPriceVersion(GasType.DIESEL), 0L);
+        versioned.setPrice(GasType.DIESEL, dieselPrice);
+        Assert.assertEquals(versioned.getPriceVersion(GasType.DIESEL), 1L);
+        CompletableFuture<Double> sale = versioned.buyGasAsync(GasType.DIESEL, 5, 1);
+        Thread.sleep(200);
+        versioned.setPrice(GasType.DIESEL, 2 * dieselPrice);
+        Assert.assertEquals(sale.get().doubleValue(), 5 * dieselPrice);
+        Assert.assertEquals(versioned.getPriceVersion(GasType.DIESEL), 2L);
+        List<Order> orders = new ArrayList<Order>();
+        orders.add(new Order(GasType.DIESEL, 1, 2));
+        orders.add(new Order(GasType.DIESEL, 1, 2));
+        for (OrderResult result : versioned.buyGasBatch(orders)) {
+            Assert.assertEquals(result.getPriceVersion(), 2L);
+            Assert.assertEquals(result.getPrice(), 2 * dieselPrice);
+        }
+    }
+
+    /**
+     * In fast reject mode cancellations throw the same stackless exception every time, and
+     * are still counted.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testFastReject() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testFastReject] Buying gas. Current Thread: "+idThread);
+        Station rejecting = new Station();
+        rejecting.setFastReject(true);
+        rejecting.setPrice(GasType.REGULAR, regularPrice);
+        rejecting.addGasPump(new GasPump(GasType.REGULAR, minLiters));
+        Exception[] rejections = new Exception[4];
+        for (int i = 0; i < rejections.length; i++) {
+            try {
+                if (i % 2 == 0) {
+                    rejecting.buyGas(GasType.REGULAR, 1, 0);
+                } else {
+                    rejecting.buyGas(GasType.REGULAR, 100, 1);
+                }
+            } catch (GasTooExpensiveException | NotEnoughGasException ex) {
+                rejections[i] = ex;
+            }
+        }
+        Assert.assertTrue(rejections[0] instanceof GasTooExpensiveException);
+        Assert.assertTrue(rejections[1] instanceof NotEnoughGasException);
+        Assert.assertSame(rejections[2], rejections[0]);
+        Assert.assertSame(rejections[3], rejections[1]);
+        Assert.assertEquals(rejections[0].getStackTrace().length, 0);
+        rejections[0].addSuppressed(new RuntimeException());
+        Assert.assertEquals(rejections[0].getSuppressed().length, 0);
+        Assert.assertEquals(rejecting.getNumberOfCancellationsTooExpensive(), 2);
+        Assert.assertEquals(rejecting.getNumberOfCancellationsNoGas(), 2);
+    }
+
+    /**
+     * Test of tryBuyGas method, of class Station. Every outcome is reported through the
+     * reused result holder and counted like buyGas does.
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testTryBuyGas() {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testTryBuyGas] Buying gas. Current Thread: "+idThread);
+        Station trying = new Station();
+        trying.setPrice(GasType.SUPER, superPrice);
+        trying.addGasPump(new GasPump(GasType.SUPER, minLiters));
+        PurchaseResult result = new PurchaseResult();
+        Assert.assertEquals(trying.tryBuyGas(GasType.SUPER, 1, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(result.getOutcome(), PurchaseOutcome.SOLD);
+        Assert.assertEquals(result.getPrice(), superPrice);
+        Assert.assertEquals(result.getPriceVersion(), 1L);
+        Assert.assertEquals(trying.tryBuyGas(GasType.SUPER, 1, 0.5, result), PurchaseOutcome.TOO_EXPENSIVE);
+        Assert.assertEquals(result.getPrice(), 0.0);
+        Assert.assertEquals(trying.tryBuyGas(GasType.SUPER, 10, 1, result), PurchaseOutcome.NO_GAS);
+        Assert.assertEquals(result.getOutcome(), PurchaseOutcome.NO_GAS);
+        Assert.assertEquals(trying.getNumberOfSales(), 1);
+        Assert.assertEquals(trying.getNumberOfCancellationsTooExpensive(), 1);
+        Assert.assertEquals(trying.getNumberOfCancellationsNoGas(), 1);
+    }
+
+    /**
+     * NaN or non-positive amounts are rejected before any fuel is reserved, so they never
+     * sell and never corrupt what the pumps have left.
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testInvalidAmount() {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testInvalidAmount] Buying gas. Current Thread: "+idThread);
+        Station invalid = new Station();
+        invalid.setPrice(GasType.DIESEL, dieselPrice);
+        GasPump pump = new GasPump(GasType.DIESEL, 1);
+        invalid.addGasPump(pump);
+        PurchaseResult result = new PurchaseResult();
+        for (double amount : new double[] {Double.NaN, 0, -1}) {
+            try {
+                invalid.tryBuyGas(GasType.DIESEL, amount, 1, result);
+                Assert.fail("Amount accepted: "+amount);
+            } catch (IllegalArgumentException ex) {
+                LOG.info("[testInvalidAmount] "+ex.getMessage());
+            }
+        }
+        Assert.assertEquals(invalid.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(invalid.tryBuyGas(GasType.DIESEL, 0.9, 1, result), PurchaseOutcome.NO_GAS);
+        Assert.assertEquals(pump.getRemainingAmount(), 0.5, 0.0001);
+        Assert.assertEquals(invalid.snapshot().getRemainingAmounts().get(pump), 0.5, 0.0001);
+        Assert.assertEquals(invalid.getNumberOfSales(), 1);
+    }
+
+    /**
+     * Test of tryBuyGas method, of class Station. Once warmed up a purchase allocates
+     * nothing, sales and cancellations alike.
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testTryBuyGasAllocation() {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testTryBuyGasAllocation] Buying gas. Current Thread: "+idThread);
+        Station trying = new Station();
+        trying.setEventSink((GasType type, double amountInLiters, double remaining, double price, long priceVersion) -> { });
+        trying.setPrice(GasType.SUPER, superPrice);
+        trying.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        PurchaseResult result = new PurchaseResult();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = 0;
+        for (int round = 0; round < 2; round++) {
+            allocated = threads.getThreadAllocatedBytes(idThread);
+            for (int i = 0; i < 10000; i++) {
+                trying.tryBuyGas(GasType.SUPER, 0.001, 1, result);
+                trying.tryBuyGas(GasType.SUPER, 0.001, 0, result);
+            }
+            allocated = threads.getThreadAllocatedBytes(idThread) - allocated;
+        }
+        //Second round, once warmed up: well below a single byte per purchase
+        Assert.assertTrue(allocated < 20000, "allocated "+allocated+" bytes");
+        Assert.assertEquals(trying.getNumberOfSales(), 20000);
+    }
+
+    /**
+     * Requests larger than what the fullest pump has left are canceled, and a pump added
+     * later serves them again.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testNoGasFastFail() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testNoGasFastFail] Buying gas. Current Thread: "+idThread);
+        Station bounded = new Station();
+        bounded.setPrice(GasType.DIESEL, dieselPrice);
+        bounded.addGasPump(new GasPump(GasType.DIESEL, 1));
+        bounded.addGasPump(new GasPump(GasType.DIESEL, 1));
+        PurchaseResult result = new PurchaseResult();
+        Assert.assertEquals(bounded.tryBuyGas(GasType.DIESEL, 2, 1, result), PurchaseOutcome.NO_GAS);
+        Assert.assertEquals(bounded.tryBuyGas(GasType.DIESEL, 0.6, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(bounded.tryBuyGas(GasType.DIESEL, 0.6, 1, result), PurchaseOutcome.SOLD);
+        //Both pumps have 0.4 liters left
+        Assert.assertEquals(bounded.tryBuyGas(GasType.DIESEL, 0.6, 1, result), PurchaseOutcome.NO_GAS);
+        Assert.assertEquals(bounded.tryBuyGas(GasType.DIESEL, 0.4, 1, result), PurchaseOutcome.SOLD);
+        bounded.addGasPump(new GasPump(GasType.DIESEL, 2));
+        Assert.assertEquals(bounded.tryBuyGas(GasType.DIESEL, 2, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(bounded.getNumberOfCancellationsNoGas(), 2);
+    }
+
+    /**
+     * Best fit keeps the fullest pump for the big order first fit cancels, round robin
+     * starts each purchase on the next pump.
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testPumpSelectionStrategy() {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testPumpSelectionStrategy] Buying gas. Current Thread: "+idThread);
+        PurchaseResult result = new PurchaseResult();
+        Station firstFit = new Station();
+        firstFit.setPrice(GasType.DIESEL, dieselPrice);
+        firstFit.addGasPump(new GasPump(GasType.DIESEL, 0.5));
+        firstFit.addGasPump(new GasPump(GasType.DIESEL, 0.1));
+        Assert.assertEquals(firstFit.tryBuyGas(GasType.DIESEL, 0.1, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(firstFit.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.NO_GAS);
+
+        Station bestFit = new Station();
+        bestFit.setPumpSelectionStrategy(PumpSelectionStrategies.bestFit());
+        bestFit.setPrice(GasType.DIESEL, dieselPrice);
+        bestFit.addGasPump(new GasPump(GasType.DIESEL, 0.5));
+        bestFit.addGasPump(new GasPump(GasType.DIESEL, 0.1));
+        Assert.assertEquals(bestFit.tryBuyGas(GasType.DIESEL, 0.1, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(bestFit.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.SOLD);
+
+        Station roundRobin = new Station();
+        roundRobin.setPumpSelectionStrategy(PumpSelectionStrategies.roundRobin());
+        roundRobin.setPrice(GasType.DIESEL, dieselPrice);
+        GasPump first = new GasPump(GasType.DIESEL, 1);
+        GasPump second = new GasPump(GasType.DIESEL, 1);
+        roundRobin.addGasPump(first);
+        roundRobin.addGasPump(second);
+        Assert.assertEquals(roundRobin.tryBuyGas(GasType.DIESEL, 0.1, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(roundRobin.tryBuyGas(GasType.DIESEL, 0.2, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(first.getRemainingAmount(), 0.9, 0.0001);
+        Assert.assertEquals(second.getRemainingAmount(), 0.8, 0.0001);
+    }
+
+    /**
+     * A rotating cursor spreads the purchases of a thread over every pump, and power of two
+     * choices sends a customer to the idle pump rather than waiting behind a long fill,
+     * even in blocking mode.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testSpreadingStrategies() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testSpreadingStrategies] Buying gas. Current Thread: "+idThread);
+        Station rotating = new Station();
+        rotating.setPumpSelectionStrategy(PumpSelectionStrategies.rotating());
+        rotating.setPrice(GasType.DIESEL, dieselPrice);
+        List<GasPump> rotated = new ArrayList<GasPump>();
+        for (int i = 0; i < 3; i++) {
+            rotated.add(new GasPump(GasType.DIESEL, 1));
+            rotating.addGasPump(rotated.get(i));
+        }
+        PurchaseResult result = new PurchaseResult();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(rotating.tryBuyGas(GasType.DIESEL, 0.1, 1, result), PurchaseOutcome.SOLD);
+        }
+        for (GasPump pump : rotated) {
+            Assert.assertEquals(pump.getRemainingAmount(), 0.9, 0.0001);
+        }
+
+        final Station twoChoices = new Station();
+        twoChoices.setPumpSelectionStrategy(PumpSelectionStrategies.powerOfTwoChoices());
+        twoChoices.setPrice(GasType.SUPER, superPrice);
+        twoChoices.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        twoChoices.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        //Keep one of the pumps busy for 2 seconds
+        Thread longFill = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    twoChoices.buyGas(GasType.SUPER, 20, 1);
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE,"Long fill failed", ex);
+                }
+            }
+        });
+        longFill.start();
+        Thread.sleep(200);
+        long start = System.currentTimeMillis();
+        twoChoices.buyGas(GasType.SUPER, 1, 1);
+        long elapsed = System.currentTimeMillis() - start;
+        longFill.join();
+        Assert.assertTrue(elapsed < 1000);
+        Assert.assertEquals(twoChoices.getNumberOfSales(), 2);
+    }
+
+    /**
+     * In queued mode customers waiting for a busy pump are served in arrival order, a
+     * waiting customer no pump has enough fuel for anymore is canceled, and the queue
+     * depth and wait times are reported.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testQueuedDispatch() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testQueuedDispatch] Buying gas. Current Thread: "+idThread);
+        final Station queued = new Station();
+        queued.setAcquisitionMode(AcquisitionMode.QUEUED);
+        queued.setPrice(GasType.DIESEL, dieselPrice);
+        queued.addGasPump(new GasPump(GasType.DIESEL, 20));
+        final List<String> served = new ArrayList<String>();
+        final String[] names = {"long fill", "first", "second", "third"};
+        final double[] liters = {10, 5, 5, 10};
+        Thread[] customers = new Thread[names.length];
+        for (int i = 0; i < customers.length; i++) {
+            final int customer = i;
+            customers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        queued.buyGas(GasType.DIESEL, liters[customer], 1);
+                        synchronized (served) {
+                            served.add(names[customer]);
+                        }
+                    } catch (NotEnoughGasException ex) {
+                        LOG.info("[testQueuedDispatch] Canceled "+names[customer]);
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE,"Purchase failed", ex);
+                    }
+                }
+            });
+            customers[i].start();
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(queued.getQueueStats(GasType.DIESEL).getLength(), 3);
+        for (Thread customer : customers) {
+            customer.join();
+        }
+        //The third customer is canceled once the first two reserved what the long fill left
+        Assert.assertEquals(served, Arrays.asList("long fill", "first", "second"));
+        Assert.assertEquals(queued.getNumberOfSales(), 3);
+        Assert.assertEquals(queued.getNumberOfCancellationsNoGas(), 1);
+        QueueStats stats = queued.getQueueStats(GasType.DIESEL);
+        Assert.assertEquals(stats.getLength(), 0);
+        Assert.assertEquals(stats.getDequeued(), 3);
+        Assert.assertTrue(stats.getMaxWaitMillis() >= 1000, "max wait "+stats.getMaxWaitMillis());
+    }
+
+    /**
+     * Customers over the admission limits of a gas type are rejected: right away when the
+     * queue is full, once their max wait is over otherwise.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testAdmissionLimits() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testAdmissionLimits] Buying gas. Current Thread: "+idThread);
+        final Station limited = new Station();
+        limited.setAdmissionLimits(GasType.DIESEL, new AdmissionLimits(1, 1, 300));
+        limited.setPrice(GasType.DIESEL, dieselPrice);
+        limited.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        limited.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        //Keep the only customer let in busy for 1 second
+        Thread longFill = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    limited.buyGas(GasType.DIESEL, 10, 1);
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE,"Long fill failed", ex);
+                }
+            }
+        });
+        longFill.start();
+        Thread.sleep(100);
+        final AtomicInteger queuedOutcome = new AtomicInteger(-1);
+        Thread queued = new Thread(new Runnable() {
+            public void run() {
+                queuedOutcome.set(limited.tryBuyGas(GasType.DIESEL, 1, 1, new PurchaseResult()));
+            }
+        });
+        queued.start();
+        Thread.sleep(100);
+        boolean success = false;
+        long start = System.currentTimeMillis();
+        try {
+            limited.buyGas(GasType.DIESEL, 1, 1);
+        } catch (StationBusyException ex) {
+            success = true;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        queued.join();
+        longFill.join();
+        Assert.assertTrue(success);
+        Assert.assertTrue(elapsed < 100);
+        Assert.assertEquals(queuedOutcome.get(), PurchaseOutcome.REJECTED);
+        Assert.assertEquals(limited.getNumberOfCancellationsRejected(), 2);
+        Assert.assertEquals(limited.getNumberOfCancellationsNoGas(), 0);
+        Assert.assertEquals(limited.snapshot().getNumberOfCancellationsRejected(), 2);
+        Assert.assertEquals(limited.getNumberOfSales(), 1);
+    }
+
+    /**
+     * A purchase with a timeout gives up when no pump is available in time, in blocking
+     * and queued mode, holding no pump and no fuel afterwards.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testBuyGasTimeout() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testBuyGasTimeout] Buying gas. Current Thread: "+idThread);
+        for (AcquisitionMode mode : new AcquisitionMode[] {AcquisitionMode.BLOCKING, AcquisitionMode.QUEUED}) {
+            final Station timing = new Station();
+            timing.setAcquisitionMode(mode);
+            timing.setPrice(GasType.SUPER, superPrice);
+            timing.addGasPump(new GasPump(GasType.SUPER, 12));
+            //Keep the pump busy for 1 second
+            Thread longFill = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        timing.buyGas(GasType.SUPER, 10, 1);
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE,"Long fill failed", ex);
+                    }
+                }
+            });
+            longFill.start();
+            Thread.sleep(200);
+            boolean success = false;
+            long start = System.currentTimeMillis();
+            try {
+                timing.buyGas(GasType.SUPER, 1, 1, 300, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                success = true;
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            Assert.assertTrue(success, mode.toString());
+            Assert.assertTrue(elapsed < 700, mode+" waited "+elapsed);
+            Assert.assertEquals(timing.tryBuyGas(GasType.SUPER, 1, 1, 0, TimeUnit.MILLISECONDS, new PurchaseResult()), PurchaseOutcome.TIMEOUT);
+            //The pump has 2 liters not reserved by the long fill, it never had fuel for 3
+            Assert.assertEquals(timing.tryBuyGas(GasType.SUPER, 3, 1, 0, TimeUnit.MILLISECONDS, new PurchaseResult()), PurchaseOutcome.NO_GAS);
+            longFill.join();
+            //Nothing left reserved or locked by the customers who gave up
+            Assert.assertEquals(timing.getQueueStats(GasType.SUPER).getLength(), 0);
+            Assert.assertEquals(timing.buyGas(GasType.SUPER, 2, 1, 300, TimeUnit.MILLISECONDS), 2 * superPrice, 0.0001);
+            Assert.assertEquals(timing.getNumberOfCancellationsTimeout(), 2);
+            Assert.assertEquals(timing.snapshot().getNumberOfCancellationsTimeout(), 2);
+            Assert.assertEquals(timing.getNumberOfCancellationsNoGas(), 1);
+            Assert.assertEquals(timing.getNumberOfSales(), 2);
+        }
+    }
+
+    /**
+     * A customer with a deadline already expired gets NO_GAS, not TIMEOUT, when no pump has
+     * enough fuel, whatever the acquisition mode.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testExpiredDeadlineNoGas() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testExpiredDeadlineNoGas] Buying gas. Current Thread: "+idThread);
+        for (AcquisitionMode mode : AcquisitionMode.values()) {
+            Station timing = new Station();
+            timing.setAcquisitionMode(mode);
+            timing.setPrice(GasType.SUPER, superPrice);
+            timing.addGasPump(new GasPump(GasType.SUPER, 0));
+            PurchaseResult result = new PurchaseResult();
+            Assert.assertEquals(timing.tryBuyGas(GasType.SUPER, 1, 1, 0, TimeUnit.MILLISECONDS, result), PurchaseOutcome.NO_GAS, mode.toString());
+            //A pump emptied by a sale
+            timing.addGasPump(new GasPump(GasType.SUPER, 1));
+            Assert.assertEquals(timing.tryBuyGas(GasType.SUPER, 1, 1, 0, TimeUnit.MILLISECONDS, result), PurchaseOutcome.SOLD, mode.toString());
+            Assert.assertEquals(timing.tryBuyGas(GasType.SUPER, 1, 1, 0, TimeUnit.MILLISECONDS, result), PurchaseOutcome.NO_GAS, mode.toString());
+            Assert.assertEquals(timing.getNumberOfCancellationsNoGas(), 2);
+            Assert.assertEquals(timing.getNumberOfCancellationsTimeout(), 0);
+        }
+    }
+
+    /**
+     * In queued mode a customer handed a pump a batch is still pumping at gives up at its
+     * deadline, and the pump goes to the next customer once the batch is done.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testQueuedTimeoutDuringBatch() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testQueuedTimeoutDuringBatch] Buying gas. Current Thread: "+idThread);
+        final Station timing = new Station();
+        timing.setAcquisitionMode(AcquisitionMode.QUEUED);
+        timing.setPrice(GasType.SUPER, superPrice);
+        timing.addGasPump(new GasPump(GasType.SUPER, 12));
+        //The batch pumps for 1 second without claiming the pump from the dispatcher
+        Thread batch = new Thread(new Runnable() {
+            public void run() {
+                timing.buyGasBatch(Arrays.asList(new Order(GasType.SUPER, 10, 1)));
+            }
+        });
+        batch.start();
+        Thread.sleep(200);
+        long start = System.currentTimeMillis();
+        int outcome = timing.tryBuyGas(GasType.SUPER, 1, 1, 300, TimeUnit.MILLISECONDS, new PurchaseResult());
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertEquals(outcome, PurchaseOutcome.TIMEOUT);
+        Assert.assertTrue(elapsed < 700, "Waited "+elapsed);
+        batch.join();
+        Assert.assertEquals(timing.tryBuyGas(GasType.SUPER, 2, 1, 300, TimeUnit.MILLISECONDS, new PurchaseResult()), PurchaseOutcome.SOLD);
+    }
+
+    /**
+     * In queued mode a fleet customer is handed the next pump freed before a walk-in customer
+     * waiting since earlier, and each lane reports its own wait times.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testPriorityLanes() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testPriorityLanes] Buying gas. Current Thread: "+idThread);
+        final Station lanes = new Station();
+        lanes.setAcquisitionMode(AcquisitionMode.QUEUED);
+        lanes.setPrice(GasType.DIESEL, dieselPrice);
+        lanes.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        final List<PurchasePriority> served = new ArrayList<PurchasePriority>();
+        final PurchasePriority[] priorities = {PurchasePriority.WALK_IN, PurchasePriority.WALK_IN, PurchasePriority.FLEET};
+        final double[] liters = {5, 1, 1};
+        Thread[] customers = new Thread[priorities.length];
+        for (int i = 0; i < customers.length; i++) {
+            final int customer = i;
+            customers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        lanes.buyGas(GasType.DIESEL, liters[customer], 1, priorities[customer]);
+                        synchronized (served) {
+                            served.add(priorities[customer]);
+                        }
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE,"Purchase failed", ex);
+                    }
+                }
+            });
+            customers[i].start();
+            Thread.sleep(100);
+        }
+        for (Thread customer : customers) {
+            customer.join();
+        }
+        //The first customer was pumping when the others arrived
+        Assert.assertEquals(served, Arrays.asList(PurchasePriority.WALK_IN, PurchasePriority.FLEET, PurchasePriority.WALK_IN));
+        QueueStats fleet = lanes.getQueueStats(GasType.DIESEL, PurchasePriority.FLEET);
+        QueueStats walkIn = lanes.getQueueStats(GasType.DIESEL, PurchasePriority.WALK_IN);
+        Assert.assertEquals(fleet.getDequeued(), 1);
+        Assert.assertEquals(walkIn.getDequeued(), 1);
+        Assert.assertTrue(fleet.getMaxWaitMillis() < walkIn.getMaxWaitMillis());
+        Assert.assertEquals(lanes.getQueueStats(GasType.DIESEL).getDequeued(), 2);
+        //Latency covers every sale of the lane, the wait for a pump plus the fill
+        Assert.assertEquals(fleet.getCompleted(), 1);
+        Assert.assertEquals(walkIn.getCompleted(), 2);
+        Assert.assertTrue(fleet.getMaxLatencyMillis() >= 100, "fleet latency "+fleet.getMaxLatencyMillis());
+        Assert.assertTrue(fleet.getMaxLatencyMillis() < walkIn.getMaxLatencyMillis());
+        Assert.assertTrue(walkIn.getAverageLatencyMillis() >= 500, "walk-in latency "+walkIn.getAverageLatencyMillis());
+        Assert.assertEquals(lanes.getQueueStats(GasType.DIESEL).getCompleted(), 3);
+    }
+
+    /**
+     * In queued mode a walk-in customer waiting for longer than the aging time is handed
+     * the next pump freed before a fleet customer.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testQueueAging() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testQueueAging] Buying gas. Current Thread: "+idThread);
+        final Station lanes = new Station();
+        lanes.setAcquisitionMode(AcquisitionMode.QUEUED);
+        lanes.setQueueAgingMillis(50);
+        Assert.assertEquals(lanes.getQueueAgingMillis(), 50);
+        lanes.setPrice(GasType.DIESEL, dieselPrice);
+        lanes.addGasPump(new GasPump(GasType.DIESEL, defaultLiters));
+        final List<PurchasePriority> served = new ArrayList<PurchasePriority>();
+        final PurchasePriority[] priorities = {PurchasePriority.WALK_IN, PurchasePriority.WALK_IN, PurchasePriority.FLEET};
+        final double[] liters = {5, 1, 1};
+        Thread[] customers = new Thread[priorities.length];
+        for (int i = 0; i < customers.length; i++) {
+            final int customer = i;
+            customers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        lanes.buyGas(GasType.DIESEL, liters[customer], 1, priorities[customer]);
+                        synchronized (served) {
+                            served.add(priorities[customer]);
+                        }
+                    } catch (Exception ex) {
+                        LOG.log(Level.SEVERE,"Purchase failed", ex);
+                    }
+                }
+            });
+            customers[i].start();
+            Thread.sleep(100);
+        }
+        for (Thread customer : customers) {
+            customer.join();
+        }
+        //The second walk-in customer waited 400 milliseconds, past the aging time
+        Assert.assertEquals(served, Arrays.asList(PurchasePriority.WALK_IN, PurchasePriority.WALK_IN, PurchasePriority.FLEET));
+        try {
+            lanes.setQueueAgingMillis(-1);
+            Assert.fail("Negative aging accepted");
+        } catch (IllegalArgumentException ex) {
+            LOG.info("[testQueueAging] "+ex.getMessage());
+        }
+    }
+
+    /**
+     * With pump affinity every thread keeps buying at its own home pump, and falls back to
+     * another pump once its home pump has not enough fuel.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testPumpAffinity() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testPumpAffinity] Buying gas. Current Thread: "+idThread);
+        final Station affine = new Station();
+        affine.setPumpSelectionStrategy(PumpSelectionStrategies.affinity());
+        affine.setPrice(GasType.DIESEL, dieselPrice);
+        final GasPump first = new GasPump(GasType.DIESEL, 1);
+        final GasPump second = new GasPump(GasType.DIESEL, 1);
+        affine.addGasPump(first);
+        affine.addGasPump(second);
+        //Homes are handed out in turn: this thread gets the first pump, the next one the second
+        PurchaseResult result = new PurchaseResult();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(affine.tryBuyGas(GasType.DIESEL, 0.2, 1, result), PurchaseOutcome.SOLD);
+        }
+        Thread other = new Thread(new Runnable() {
+            public void run() {
+                affine.tryBuyGas(GasType.DIESEL, 0.1, 1, new PurchaseResult());
+            }
+        });
+        other.start();
+        other.join();
+        Assert.assertEquals(first.getRemainingAmount(), 0.4, 0.0001);
+        Assert.assertEquals(second.getRemainingAmount(), 0.9, 0.0001);
+        //Not enough left at home
+        Assert.assertEquals(affine.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(second.getRemainingAmount(), 0.4, 0.0001);
+    }
+
+    /**
+     * A pump out of service or removed gets no new customers right away, while a fill going
+     * on at it completes; back in service it serves again.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testOutOfServiceAndRemoval() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testOutOfServiceAndRemoval] Buying gas. Current Thread: "+idThread);
+        final Station servicing = new Station();
+        servicing.setPrice(GasType.DIESEL, dieselPrice);
+        GasPump small = new GasPump(GasType.DIESEL, 1);
+        GasPump large = new GasPump(GasType.DIESEL, 20);
+        servicing.addGasPump(small);
+        servicing.addGasPump(large);
+        PurchaseResult result = new PurchaseResult();
+
+        servicing.setOutOfService(small, true);
+        Assert.assertTrue(servicing.isOutOfService(small));
+        Assert.assertEquals(servicing.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(small.getRemainingAmount(), 1, 0.0001);
+        servicing.setOutOfService(large, true);
+        Assert.assertEquals(servicing.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.NO_GAS);
+        servicing.setOutOfService(small, false);
+        servicing.setOutOfService(large, false);
+        Assert.assertEquals(servicing.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(small.getRemainingAmount(), 0.5, 0.0001);
+
+        //Remove the large pump while it is busy with a 1 second fill
+        Thread longFill = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    servicing.buyGas(GasType.DIESEL, 10, 1);
+                } catch (Exception ex) {
+                    LOG.log(Level.SEVERE,"Long fill failed", ex);
+                }
+            }
+        });
+        longFill.start();
+        Thread.sleep(200);
+        Assert.assertTrue(servicing.removeGasPump(large));
+        Assert.assertFalse(servicing.removeGasPump(large));
+        Assert.assertEquals(servicing.tryBuyGas(GasType.DIESEL, 1, 1, result), PurchaseOutcome.NO_GAS);
+        longFill.join();
+        Assert.assertEquals(large.getRemainingAmount(), 9.5, 0.0001);
+        Assert.assertFalse(servicing.getGasPumps().contains(large));
+        Assert.assertFalse(servicing.snapshot().getRemainingAmounts().containsKey(large));
+        Assert.assertEquals(servicing.getNumberOfSales(), 3);
+    }
+
+    /**
+     * Customers waiting in queued mode for the last pump of a gas type are turned away when
+     * it is removed, instead of waiting forever.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testRemovalWakesQueuedCustomers() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testRemovalWakesQueuedCustomers] Buying gas. Current Thread: "+idThread);
+        final Station queued = new Station();
+        queued.setAcquisitionMode(AcquisitionMode.QUEUED);
+        queued.setPrice(GasType.DIESEL, dieselPrice);
+        GasPump last = new GasPump(GasType.DIESEL, 20);
+        queued.addGasPump(last);
+        //Keep the pump busy for a second
+        Thread longFill = new Thread(new Runnable() {
+            public void run() {
+                queued.tryBuyGas(GasType.DIESEL, 10, 1, new PurchaseResult());
+            }
+        });
+        longFill.start();
+        Thread.sleep(100);
+        final int[] outcome = {-1};
+        Thread waiting = new Thread(new Runnable() {
+            public void run() {
+                outcome[0] = queued.tryBuyGas(GasType.DIESEL, 5, 1, new PurchaseResult());
+            }
+        });
+        waiting.start();
+        Thread.sleep(100);
+        Assert.assertEquals(queued.getQueueStats(GasType.DIESEL).getLength(), 1);
+        Assert.assertTrue(queued.removeGasPump(last));
+        waiting.join(300);
+        Assert.assertFalse(waiting.isAlive());
+        Assert.assertEquals(outcome[0], PurchaseOutcome.NO_GAS);
+        longFill.join();
+        Assert.assertEquals(queued.getNumberOfSales(), 1);
+    }
+
+    /**
+     * A restocked pump is replaced by one with the fuel added and serves it, and the refill
+     * policy restocks a pump left low by a sale in the background. The pumps added to the
+     * station can still be taken out of service and removed.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testRestock() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testRestock] Buying gas. Current Thread: "+idThread);
+        Station restocking = new Station();
+        restocking.setPrice(GasType.DIESEL, dieselPrice);
+        GasPump first = new GasPump(GasType.DIESEL, 1);
+        GasPump second = new GasPump(GasType.DIESEL, 1);
+        restocking.addGasPump(first);
+        restocking.addGasPump(second);
+        PurchaseResult result = new PurchaseResult();
+        Assert.assertEquals(restocking.tryBuyGas(GasType.DIESEL, 0.8, 1, result), PurchaseOutcome.SOLD);
+        GasPump restocked = restocking.restock(first, 1);
+        Assert.assertEquals(restocked.getRemainingAmount(), 1.2, 0.0001);
+        Assert.assertTrue(restocking.getGasPumps().contains(restocked));
+        Assert.assertFalse(restocking.getGasPumps().contains(first));
+        Assert.assertEquals(restocking.tryBuyGas(GasType.DIESEL, 1.1, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(restocked.getRemainingAmount(), 0.1, 0.0001);
+        Assert.assertEquals(restocking.snapshot().getRemainingAmounts().get(restocked), 0.1, 0.0001);
+
+        //The second pump is left with less than 0.5 liters and refilled to 2 liters
+        restocking.setRefillPolicy(new RefillPolicy(0.5, 2));
+        Assert.assertEquals(restocking.tryBuyGas(GasType.DIESEL, 0.8, 1, result), PurchaseOutcome.SOLD);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (restocking.getGasPumps().contains(second) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(restocking.getGasPumps().contains(second));
+        Assert.assertEquals(restocking.tryBuyGas(GasType.DIESEL, 1.9, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(restocking.getNumberOfCancellationsNoGas(), 0);
+
+        //The pumps added to the station still name them once restocked
+        restocking.setOutOfService(second, true);
+        Assert.assertTrue(restocking.isOutOfService(second));
+        Assert.assertEquals(restocking.tryBuyGas(GasType.DIESEL, 0.5, 1, result), PurchaseOutcome.NO_GAS);
+        Assert.assertTrue(restocking.removeGasPump(second));
+        Assert.assertTrue(restocking.removeGasPump(first));
+        Assert.assertTrue(restocking.getGasPumps().isEmpty());
+    }
+
+    /**
+     * Pumps fed by a tank fill from it at the same time and serve orders none of them has
+     * fuel for on its own, until the tank runs low.
+     * @throws Exception 
+     */
+    @Test(threadPoolSize = 1, invocationCount = 1)
+    public void testSharedTank() throws Exception {
+        long idThread = Thread.currentThread().getId();
+        LOG.info("[testSharedTank] Buying gas. Current Thread: "+idThread);
+        final Station tanked = new Station();
+        tanked.setPrice(GasType.DIESEL, dieselPrice);
+        tanked.addTank(GasType.DIESEL, 10);
+        for (int i = 0; i < 3; i++) {
+            tanked.addGasPump(new GasPump(GasType.DIESEL, 0));
+        }
+        //Three fills of 300 milliseconds at three pumps run at the same time
+        Thread[] customers = new Thread[3];
+        for (int i = 0; i < customers.length; i++) {
+            customers[i] = new Thread(new Runnable() {
+                public void run() {
+                    tanked.tryBuyGas(GasType.DIESEL, 3, 1, new PurchaseResult());
+                }
+            });
+        }
+        long start = System.currentTimeMillis();
+        for (Thread customer : customers) {
+            customer.start();
+        }
+        for (Thread customer : customers) {
+            customer.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue(elapsed < 800);
+        Assert.assertEquals(tanked.getNumberOfSales(), 3);
+        Assert.assertEquals(tanked.getTankLevel(GasType.DIESEL), 1, 0.0001);
+
+        PurchaseResult result = new PurchaseResult();
+        Assert.assertEquals(tanked.tryBuyGas(GasType.DIESEL, 2, 1, result), PurchaseOutcome.NO_GAS);
+        tanked.addTank(GasType.DIESEL, 5);
+        Assert.assertEquals(tanked.tryBuyGas(GasType.DIESEL, 2, 1, result), PurchaseOutcome.SOLD);
+        Assert.assertEquals(tanked.getTankLevel(GasType.DIESEL), 4, 0.0001);
+        Assert.assertTrue(Double.isNaN(tanked.getTankLevel(GasType.SUPER)));
+
+        //A batch spreads its orders over the pumps of the tank too
+        tanked.addTank(GasType.DIESEL, 9);
+        List<Order> orders = new ArrayList<Order>();
+        for (int i = 0; i < 3; i++) {
+            orders.add(new Order(GasType.DIESEL, 3, 1));
+        }
+        start = System.currentTimeMillis();
+        for (OrderResult sold : tanked.buyGasBatch(orders)) {
+            Assert.assertEquals(sold.getOutcome(), PurchaseOutcome.SOLD);
+        }
+        elapsed = System.currentTimeMillis() - start;
+        Assert.assertTrue(elapsed < 800);
+        Assert.assertEquals(tanked.getTankLevel(GasType.DIESEL), 4, 0.0001);
+        //Pumps report the fuel left in the tank, not what they measured
+        StationStats stats = tanked.snapshot();
+        Assert.assertEquals(stats.getTankLevel(GasType.DIESEL), 4, 0.0001);
+        Assert.assertTrue(Double.isNaN(stats.getTankLevel(GasType.SUPER)));
+        for (double remaining : stats.getRemainingAmounts().values()) {
+            Assert.assertEquals(remaining, 4, 0.0001);
+        }
+        //Restocking a pump of the tank fills the tank and keeps the pump
+        GasPump nozzle = tanked.getGasPumps().iterator().next();
+        Assert.assertSame(tanked.restock(nozzle, 2), nozzle);
+        Assert.assertEquals(tanked.getTankLevel(GasType.DIESEL), 6, 0.0001);
+
+        //Pumps with their own fuel cannot be fed by a tank later
+        tanked.addGasPump(new GasPump(GasType.SUPER, defaultLiters));
+        try {
+            tanked.addTank(GasType.SUPER, 10);
+            Assert.fail("Tank added under pumps with their own fuel");
+        } catch (IllegalStateException ex) {
+            LOG.info("[testSharedTank] "+ex.getMessage());
+        }
+    }
 }